@@ -0,0 +1,119 @@
+package tfcr.jmh;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import tfcr.utils.ITreeBlockWriter;
+
+import java.util.Arrays;
+
+/**
+ * A stand-in for a world: a cube of block states starting at (0, 0, 0), stored in a flat array.
+ *
+ * Reads outside the cube return air, and writes outside it are dropped. Only the positions
+ * written since the last {@link #reset()} are cleared, so resetting after placing a tree
+ * costs about as much as the tree, not the whole cube.
+ */
+public class ArrayTreeWorld implements ITreeBlockWriter {
+
+    private static final BlockState AIR = Blocks.AIR.getDefaultState();
+
+    private final int size;
+    private final BlockState[] states;
+    private final byte[] owners;
+
+    private final boolean[] dirty;
+    private final IntArrayList dirtyIndices = new IntArrayList();
+
+    public ArrayTreeWorld(int size) {
+        this.size = size;
+        this.states = new BlockState[size * size * size];
+        this.owners = new byte[states.length];
+        this.dirty = new boolean[states.length];
+        Arrays.fill(states, AIR);
+        Arrays.fill(owners, (byte) 1);
+    }
+
+    private int indexOf(BlockPos pos) {
+        int x = pos.getX();
+        int y = pos.getY();
+        int z = pos.getZ();
+        if (x < 0 || y < 0 || z < 0 || x >= size || y >= size || z >= size) {
+            return -1;
+        }
+        return (y * size + z) * size + x;
+    }
+
+    private void markDirty(int index) {
+        if (!dirty[index]) {
+            dirty[index] = true;
+            dirtyIndices.add(index);
+        }
+    }
+
+    /**
+     * Turns every position written since the last reset back into air with one owner.
+     */
+    public void reset() {
+        for (int i = 0; i < dirtyIndices.size(); i++) {
+            int index = dirtyIndices.getInt(i);
+            states[index] = AIR;
+            owners[index] = 1;
+            dirty[index] = false;
+        }
+        dirtyIndices.clear();
+    }
+
+    /**
+     * @return The number of positions that aren't air.
+     */
+    public int countBlocks() {
+        int count = 0;
+        for (int i = 0; i < dirtyIndices.size(); i++) {
+            if (states[dirtyIndices.getInt(i)] != AIR) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        int index = indexOf(pos);
+        return index == -1 ? AIR : states[index];
+    }
+
+    @Override
+    public void setBlockState(BlockPos pos, BlockState state) {
+        int index = indexOf(pos);
+        if (index != -1) {
+            states[index] = state;
+            markDirty(index);
+        }
+    }
+
+    @Override
+    public void removeBlock(BlockPos pos) {
+        setBlockState(pos, AIR);
+    }
+
+    @Override
+    public int getLeafOwners(BlockPos pos) {
+        int index = indexOf(pos);
+        return index == -1 ? 1 : owners[index];
+    }
+
+    @Override
+    public void setLeafOwners(BlockPos pos, int count) {
+        int index = indexOf(pos);
+        if (index != -1) {
+            owners[index] = (byte) count;
+            markDirty(index);
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,170 @@
+package tfcr.jmh;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.block.AirBlock;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.state.IProperty;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Registry;
+import net.minecraft.world.gen.feature.template.Template;
+import tfcr.blocks.BranchBlock;
+import tfcr.blocks.LeavesBlock;
+import tfcr.blocks.LogBlock;
+import tfcr.blocks.SaplingBlock;
+import tfcr.blocks.TallSaplingBlock;
+import tfcr.data.WoodType;
+import tfcr.utils.CompiledTreeTemplate;
+import tfcr.utils.TemplateHelper;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the tree templates from the classpath, without a running server.
+ *
+ * Our blocks are never registered outside of the game, so Template.read() can't resolve
+ * them and turns them into air. Instead, we read the palette ourselves, looking our blocks
+ * up by the registry names they give themselves. Vanilla Templates get a similar vanilla
+ * block in place of each of ours.
+ */
+public class TemplateLoader {
+
+    private static Map<ResourceLocation, Block> blocks;
+
+    private static void init() {
+        blocks = new HashMap<>();
+        List<Block> all = new ArrayList<>();
+        all.addAll(LogBlock.getAllBlocks());
+        all.addAll(LeavesBlock.getAllBlocks());
+        all.addAll(BranchBlock.getAllBlocks());
+        all.addAll(SaplingBlock.getAllBlocks());
+        all.addAll(TallSaplingBlock.getAllBlocks());
+        for (Block block : all) {
+            blocks.put(block.getRegistryName(), block);
+        }
+    }
+
+    /**
+     * Reads the raw NBT of a tree template.
+     */
+    public static CompoundNBT readNBT(WoodType woodType, int age) throws IOException {
+        String path = "/data/tfcr/structures/" + TemplateHelper.getTreeTemplateLocation(woodType, age) + ".nbt";
+        try (InputStream stream = TemplateLoader.class.getResourceAsStream(path)) {
+            if (stream == null) {
+                throw new FileNotFoundException(path);
+            }
+            return CompressedStreamTools.readCompressed(stream);
+        }
+    }
+
+    /**
+     * Reads a vanilla Template. Each of our blocks is swapped for a similar vanilla block,
+     * so the Template has the same layout and palette size, without any air in place of our blocks.
+     */
+    public static Template readTemplate(CompoundNBT nbt) {
+        if (blocks == null) {
+            init();
+        }
+
+        CompoundNBT copy = nbt.copy();
+        ListNBT paletteNBT = copy.getList("palette", 10);
+        for (int i = 0; i < paletteNBT.size(); i++) {
+            CompoundNBT entry = paletteNBT.getCompound(i);
+            Block block = blocks.get(new ResourceLocation(entry.getString("Name")));
+            if (block != null) {
+                entry.putString("Name", Registry.BLOCK.getKey(getStandIn(block)).toString());
+            }
+        }
+
+        Template template = new Template();
+        template.read(copy);
+        return template;
+    }
+
+    // The vanilla block that stands in for one of ours in a vanilla Template.
+    private static Block getStandIn(Block block) {
+        if (block instanceof BranchBlock) {
+            return Blocks.OAK_FENCE;
+        }
+        if (block instanceof LogBlock) {
+            return Blocks.OAK_LOG;
+        }
+        if (block instanceof LeavesBlock) {
+            return Blocks.OAK_LEAVES;
+        }
+        return Blocks.OAK_SAPLING;
+    }
+
+    /**
+     * Compiles a template's NBT the same way {@link CompiledTreeTemplate#compile(Template)} would.
+     */
+    public static CompiledTreeTemplate compile(CompoundNBT nbt) {
+        if (blocks == null) {
+            init();
+        }
+
+        ListNBT paletteNBT = nbt.getList("palette", 10);
+        BlockState[] palette = new BlockState[paletteNBT.size()];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = readState(paletteNBT.getCompound(i));
+        }
+
+        ListNBT sizeNBT = nbt.getList("size", 3);
+        BlockPos size = new BlockPos(sizeNBT.getInt(0), sizeNBT.getInt(1), sizeNBT.getInt(2));
+        BlockPos center = new BlockPos(size.getX() / 2, 0, size.getZ() / 2);
+
+        ListNBT blocksNBT = nbt.getList("blocks", 10);
+        LongArrayList positions = new LongArrayList();
+        List<BlockState> states = new ArrayList<>();
+        for (int i = 0; i < blocksNBT.size(); i++) {
+            CompoundNBT blockNBT = blocksNBT.getCompound(i);
+            BlockState state = palette[blockNBT.getInt("state")];
+            if (state.getBlock() instanceof AirBlock) {
+                continue;
+            }
+
+            ListNBT pos = blockNBT.getList("pos", 3);
+            positions.add(CompiledTreeTemplate.pack(
+                    pos.getInt(0) - center.getX(),
+                    pos.getInt(1) - center.getY(),
+                    pos.getInt(2) - center.getZ()));
+            states.add(state);
+        }
+
+        return CompiledTreeTemplate.of(size, center, positions.toLongArray(), states.toArray(new BlockState[0]));
+    }
+
+    private static BlockState readState(CompoundNBT entry) {
+        ResourceLocation name = new ResourceLocation(entry.getString("Name"));
+        Block block = blocks.get(name);
+        if (block == null) {
+            block = Registry.BLOCK.getOrDefault(name);
+        }
+
+        BlockState state = block.getDefaultState();
+        CompoundNBT properties = entry.getCompound("Properties");
+        for (String key : properties.keySet()) {
+            // Properties that no longer exist (e.g. num_trees) are ignored, as in NBTUtil.readBlockState.
+            IProperty<?> property = block.getStateContainer().getProperty(key);
+            if (property != null) {
+                state = withValue(state, property, properties.getString(key));
+            }
+        }
+        return state;
+    }
+
+    private static <T extends Comparable<T>> BlockState withValue(BlockState state, IProperty<T> property, String value) {
+        return property.parseValue(value).map(parsed -> state.with(property, parsed)).orElse(state);
+    }
+}
@@ -0,0 +1,141 @@
+package tfcr.jmh;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraft.world.gen.feature.template.Template;
+import org.openjdk.jmh.annotations.*;
+import tfcr.blocks.SaplingBlock;
+import tfcr.data.WoodType;
+import tfcr.tileentity.TreeTileEntity;
+import tfcr.utils.CompiledTreeTemplate;
+import tfcr.utils.TemplateHelper;
+import tfcr.utils.TreeGrowthDelta;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of tree growth against an {@link ArrayTreeWorld}, using the real oak templates.
+ *
+ * Run with "gradlew jmh". Results are in ops/sec, and the GC profiler reports the
+ * allocation rate (gc.alloc.rate.norm is bytes allocated per operation).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TreeGrowthBenchmark {
+
+    private static final WoodType WOOD = WoodType.OAK;
+    private static final int WORLD_SIZE = 64;
+    private static final BlockPos ROOT = new BlockPos(WORLD_SIZE / 2, 1, WORLD_SIZE / 2);
+
+    @Param({"2", "5", "8"})
+    public int age;
+
+    private Template[] templates;
+    private CompiledTreeTemplate[] compiled;
+    // deltas[i] grows a tree from age i to age i + 1.
+    private TreeGrowthDelta[] deltas;
+
+    @Setup(Level.Trial)
+    public void loadTemplates() throws IOException {
+        Bootstrap.register();
+
+        int maxAge = SaplingBlock.getMaxAge();
+        templates = new Template[maxAge + 1];
+        compiled = new CompiledTreeTemplate[maxAge + 1];
+        for (int i = 0; i <= maxAge; i++) {
+            CompoundNBT nbt = TemplateLoader.readNBT(WOOD, i);
+            templates[i] = TemplateLoader.readTemplate(nbt);
+            compiled[i] = TemplateLoader.compile(nbt);
+        }
+
+        deltas = new TreeGrowthDelta[maxAge];
+        for (int i = 0; i < maxAge; i++) {
+            deltas[i] = TreeGrowthDelta.compute(compiled[i], compiled[i + 1]);
+        }
+    }
+
+    /**
+     * A world with nothing in it. Every benchmark leaves the world as it found it, so
+     * this only needs to be cleared once per iteration; per-call setup would cost more
+     * than the shorter benchmarks do.
+     */
+    @State(Scope.Thread)
+    public static class EmptyWorld {
+        final ArrayTreeWorld world = new ArrayTreeWorld(WORLD_SIZE);
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            world.reset();
+        }
+    }
+
+    /**
+     * Placing a whole tree into empty space, as spawnTree does, then clearing it with
+     * {@link ArrayTreeWorld#reset()}.
+     */
+    @Benchmark
+    public ArrayTreeWorld spawnTree(EmptyWorld empty) {
+        TreeTileEntity.placeTree(empty.world, ROOT, compiled[age], WOOD);
+        empty.world.reset();
+        return empty.world;
+    }
+
+    /**
+     * Removing a whole tree, as cleanupTree does. The tree is placed and cleared the same
+     * way as in {@link #spawnTree(EmptyWorld)}, so the difference between the two is the
+     * cost of removing it.
+     */
+    @Benchmark
+    public int cleanupTree(EmptyWorld empty) {
+        TreeTileEntity.placeTree(empty.world, ROOT, compiled[age], WOOD);
+        int removed = TreeTileEntity.removeTree(empty.world, ROOT, compiled[age]);
+        empty.world.reset();
+        return removed;
+    }
+
+    /**
+     * Reading a Template's blocks through reflection.
+     */
+    @Benchmark
+    public Map<BlockPos, BlockState> getBlockMap() {
+        return TemplateHelper.getBlockMap(templates[age]);
+    }
+
+    /**
+     * Growing a sapling all the way up, applying only the delta between each age.
+     * Doesn't depend on the age parameter.
+     */
+    @Benchmark
+    public ArrayTreeWorld growAllAges(EmptyWorld empty) {
+        TreeTileEntity.placeTree(empty.world, ROOT, compiled[0], WOOD);
+        for (TreeGrowthDelta delta : deltas) {
+            TreeTileEntity.applyDelta(empty.world, ROOT, delta, WOOD);
+        }
+        empty.world.reset();
+        return empty.world;
+    }
+
+    /**
+     * Growing a sapling all the way up by removing and re-placing the whole tree at
+     * each age, for comparison with {@link #growAllAges(EmptyWorld)}.
+     * Doesn't depend on the age parameter.
+     */
+    @Benchmark
+    public ArrayTreeWorld growAllAgesFullRestamp(EmptyWorld empty) {
+        TreeTileEntity.placeTree(empty.world, ROOT, compiled[0], WOOD);
+        for (int i = 1; i < compiled.length; i++) {
+            TreeTileEntity.removeTree(empty.world, ROOT, compiled[i - 1]);
+            TreeTileEntity.placeTree(empty.world, ROOT, compiled[i], WOOD);
+        }
+        empty.world.reset();
+        return empty.world;
+    }
+}
@@ -1,10 +1,18 @@
 package tfcr;
 
+import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
+import tfcr.network.TFCRNetwork;
 
 @Mod(TFCR.MODID)
 public class TFCR {
     public static final String MODID = "tfcr";
     public static final String NAME = "TerraFirmaCraft Reloaded";
     public static final String VERSION = "1.0";
+
+    public TFCR() {
+        ModLoadingContext.get().registerConfig(ModConfig.Type.COMMON, TFCRConfig.SPEC);
+        TFCRNetwork.register();
+    }
 }
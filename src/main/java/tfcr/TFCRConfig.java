@@ -0,0 +1,107 @@
+package tfcr;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+import tfcr.utils.TreeMetrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Server-side settings, stored in config/tfcr-common.toml.
+ */
+public class TFCRConfig {
+
+    public static final ForgeConfigSpec SPEC;
+
+    /**
+     * How many milliseconds per server tick may be spent growing trees. Trees that
+     * don't fit in the budget grow on a later tick instead.
+     */
+    public static final ForgeConfigSpec.DoubleValue treeGrowthBudgetMs;
+
+    /**
+     * Whether every tree's shape is generated procedurally, even if it has templates.
+     */
+    public static final ForgeConfigSpec.BooleanValue proceduralTreesOnly;
+
+    /**
+     * The most blocks breaking a tree's root may fell at once. 0 disables felling.
+     */
+    public static final ForgeConfigSpec.IntValue maxFelledBlocks;
+
+    /**
+     * How often tree metrics are written to disk, in seconds. 0 disables it.
+     */
+    public static final ForgeConfigSpec.IntValue metricsDumpIntervalSeconds;
+
+    /**
+     * The format tree metrics are written in.
+     */
+    public static final ForgeConfigSpec.EnumValue<TreeMetrics.DumpFormat> metricsDumpFormat;
+
+    /**
+     * Whether the temp/precip biome table is checked against every biome's range when built.
+     */
+    public static final ForgeConfigSpec.BooleanValue verifyBiomeLookup;
+
+    /**
+     * The cache size of stages of the biome layer stack, by stage key; see LayerContextTFCR.
+     */
+    public static final ForgeConfigSpec.ConfigValue<List<? extends String>> layerCacheSizes;
+
+    /**
+     * Whether the biome layer stack records cache hit rates and compute times.
+     */
+    public static final ForgeConfigSpec.BooleanValue layerStats;
+
+    /**
+     * Whether each world's biome map is cached on disk; see BiomeRegionCache.
+     */
+    public static final ForgeConfigSpec.BooleanValue biomeRegionCache;
+
+    static {
+        ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
+
+        builder.push("trees");
+        treeGrowthBudgetMs = builder
+                .comment("Milliseconds per server tick that may be spent growing trees. At least one tree always grows per tick.")
+                .defineInRange("growthBudgetMs", 2.0, 0.0, 50.0);
+        proceduralTreesOnly = builder
+                .comment("Generate every tree's shape procedurally, ignoring tree templates. Wood types without templates are always generated.")
+                .define("proceduralTreesOnly", false);
+        maxFelledBlocks = builder
+                .comment("Breaking the trunk of a tree fells the whole tree, up to this many blocks. 0 disables felling.")
+                .defineInRange("maxFelledBlocks", 4096, 0, 65536);
+        builder.pop();
+
+        builder.push("metrics");
+        metricsDumpIntervalSeconds = builder
+                .comment("How often to append tree growth metrics to tfcr/tree-metrics.csv (or .jsonl), in seconds. 0 disables it.")
+                .defineInRange("dumpIntervalSeconds", 0, 0, 86400);
+        metricsDumpFormat = builder
+                .comment("The format tree growth metrics are written in: CSV, or JSON (one object per line).")
+                .defineEnum("dumpFormat", TreeMetrics.DumpFormat.CSV);
+        builder.pop();
+
+        builder.push("worldgen");
+        verifyBiomeLookup = builder
+                .comment("Check every entry of the temperature/precipitation biome table against the biome ranges when it's built, and fail if any differ. For debugging.")
+                .define("verifyBiomeLookup", false);
+        layerCacheSizes = builder
+                .comment("The cache size of stages of the biome layer stack, as \"<stage>=<size>\" entries, e.g. \"ZoomLayer.NORMAL@1000=256\".",
+                        "A stage is its layer and seed, as listed by \"/tfcr perf layers\". Stages with the same layer and seed share an entry.",
+                        "Stages without an entry (or with a size of 0) keep the default: 25 for the first stages, and 4x the parent stage's size (up to 1024) after that.",
+                        "Only applies to newly loaded worlds.")
+                .defineList("layerCacheSizes", Collections.emptyList(), entry -> entry instanceof String && ((String) entry).matches(".+=\\s*\\d{1,9}\\s*"));
+        layerStats = builder
+                .comment("Record cache hits, misses and compute time for each stage of the biome layer stack, shown by \"/tfcr perf layers\". Slows down worldgen a little.",
+                        "Only applies to newly loaded worlds.")
+                .define("layerStats", false);
+        biomeRegionCache = builder
+                .comment("Cache each world's biome map in <world>/tfcr/biomes, so it's only generated once. Delete the folder to regenerate it.")
+                .define("biomeRegionCache", true);
+        builder.pop();
+
+        SPEC = builder.build();
+    }
+}
@@ -13,6 +13,8 @@ import net.minecraft.state.properties.BlockStateProperties;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.util.BlockRenderLayer;
 import net.minecraft.util.Direction;
+import net.minecraft.util.Mirror;
+import net.minecraft.util.Rotation;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.shapes.ISelectionContext;
 import net.minecraft.util.math.shapes.VoxelShape;
@@ -34,6 +36,7 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.UnaryOperator;
 
 /**
  * A block for wooden branches; that is, wooden logs that are thinner than a full block wide.
@@ -206,6 +209,45 @@ public class BranchBlock extends RotatedPillarBlock implements ISelfRegisterBloc
         return getDefaultState().with(AXIS, context.getFace().getAxis());
     }
 
+    /**
+     * Rotates this branch. Besides changing the axis, the extended ends may need to swap,
+     * since the new axis' positive direction might be the old one's negative direction.
+     */
+    @Override
+    public BlockState rotate(BlockState state, Rotation rot) {
+        return transform(state, rot::rotate);
+    }
+
+    /**
+     * Mirrors this branch. See {@link #rotate(BlockState, Rotation)}.
+     */
+    @Override
+    public BlockState mirror(BlockState state, Mirror mirrorIn) {
+        return transform(state, mirrorIn::mirror);
+    }
+
+    private static BlockState transform(BlockState state, UnaryOperator<Direction> transform) {
+        Direction positive = transform.apply(getPositiveDirection(state.get(AXIS)));
+        BlockState transformed = state.with(AXIS, positive.getAxis());
+        if (positive != getPositiveDirection(positive.getAxis())) {
+            transformed = transformed
+                    .with(EXTEND_POSITIVE, state.get(EXTEND_NEGATIVE))
+                    .with(EXTEND_NEGATIVE, state.get(EXTEND_POSITIVE));
+        }
+        return transformed;
+    }
+
+    /**
+     * @return The direction EXTEND_POSITIVE refers to for the given axis; see getPostPlacementState.
+     */
+    public static Direction getPositiveDirection(Direction.Axis axis) {
+        switch (axis) {
+            case X: return Direction.EAST;
+            case Z: return Direction.NORTH;
+            default: return Direction.UP;
+        }
+    }
+
     @Override
     public boolean hasTileEntity(BlockState state) {
         return state.get(ROOT);
@@ -309,10 +351,23 @@ public class BranchBlock extends RotatedPillarBlock implements ISelfRegisterBloc
         return stateIn;
     }
 
+    /**
+     * Sets which ends of a branch extend into its neighbors along its axis, by the same
+     * rules as {@link #getPostPlacementState}. For building trees outside of a world.
+     * @param state The state of a BranchBlock.
+     * @param negative The block in the negative direction along the branch's axis.
+     * @param positive The block in the positive direction; see {@link #getPositiveDirection}.
+     */
+    public static BlockState withNeighbors(BlockState state, BlockState negative, BlockState positive) {
+        return state
+                .with(EXTEND_NEGATIVE, hasPerpendicularBranch(state, negative))
+                .with(EXTEND_POSITIVE, hasPerpendicularBranch(state, positive));
+    }
+
     // Returns true if the provided neighbor is perpendicular to this blockstate, and
     // if our diameter is strictly less than the neighbor's. Used to determine if we should
     // extend this branch in the direction of the neighbor.
-    private boolean hasPerpendicularBranch(BlockState stateIn, BlockState neighbor) {
+    private static boolean hasPerpendicularBranch(BlockState stateIn, BlockState neighbor) {
         if (neighbor.getBlock() instanceof BranchBlock) {
             if (neighbor.get(AXIS) != stateIn.get(AXIS)) {
                 if (((BranchBlock) neighbor.getBlock()).diameter >= ((BranchBlock) stateIn.getBlock()).diameter) {
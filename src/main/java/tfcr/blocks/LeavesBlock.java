@@ -3,24 +3,31 @@ package tfcr.blocks;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
+import net.minecraft.entity.LivingEntity;
 import net.minecraft.item.BlockItem;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.item.Items;
-import net.minecraft.state.IntegerProperty;
 import net.minecraft.state.StateContainer;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.World;
 import net.minecraft.world.storage.loot.LootContext;
 import net.minecraftforge.registries.IForgeRegistry;
 import tfcr.TFCR;
+import tfcr.data.LeafOwnership;
 import tfcr.data.WoodType;
 import tfcr.init.ISelfRegisterBlock;
 import tfcr.init.ISelfRegisterItem;
 import tfcr.init.ModItems;
 import tfcr.init.ModTabs;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 public class LeavesBlock extends net.minecraft.block.LeavesBlock implements ISelfRegisterBlock, ISelfRegisterItem, IBlockWood {
 
@@ -31,27 +38,6 @@ public class LeavesBlock extends net.minecraft.block.LeavesBlock implements ISel
      */
     public WoodType woodType;
 
-    /**
-     * How many trees are we a part of?
-     *
-     * This is used to deal with multiple trees growing in close proximity to
-     * one another. If two trees of the same type share a leaf canopy, then
-     * this property is increased to 2. When a tree grows, instead of
-     * destroying the leaf block, this property is decreased. When it hits 0,
-     * it can be actually fully removed when a tree grows.
-     *
-     * Destroying this block by means other than growing (via Player, fire, etc.)
-     * ignores this property.
-     *
-     * A value of 0 is not possibly naturally, and so indicates a player-placed
-     * leaf block. A leaf block with this value will not decay.
-     * TODO: evaluate if these leaf blocks need to decay. Player-placed leaf blocks
-     *  shouldn't decay, and if we have a timber-like tree destruction system, then
-     *  there won't ever be hanging leaf blocks. If so, we can remove the LeavesBlock
-     *  subclassing to minimize the number of IDs we take up.
-     */
-    public static final IntegerProperty NUM_TREES = IntegerProperty.create("num_trees", 0, 16);
-
     public LeavesBlock(WoodType woodType) {
         super(Block.Properties.from(Blocks.OAK_LEAVES));
         this.woodType = woodType;
@@ -95,10 +81,70 @@ public class LeavesBlock extends net.minecraft.block.LeavesBlock implements ISel
 
     @Override
     public void fillStateContainer(StateContainer.Builder<Block, BlockState> builder) {
-        builder.add(DISTANCE).add(PERSISTENT).add(NUM_TREES);
+        builder.add(DISTANCE).add(PERSISTENT);
         // TODO if we remove LeavesBlock subclass then remove distance/persistent
     }
 
+    /**
+     * Leaves placed by a player aren't part of any tree, so growing trees leave them alone.
+     *
+     * Which trees a leaf block is part of is tracked per chunk by {@link LeafOwnership}, rather
+     * than in the block state. This is used to deal with multiple trees growing in close proximity
+     * to one another: if two trees of the same type share a leaf canopy, the leaves are owned by
+     * both, and a tree that grows or is removed only gives up its share of them.
+     *
+     * Destroying this block by means other than growing (via Player, fire, etc.) ignores ownership.
+     * TODO: evaluate if these leaf blocks need to decay. Player-placed leaf blocks
+     *  shouldn't decay, and since breaking a tree's root fells the whole tree (see
+     *  TreeFeller), there shouldn't be many hanging leaf blocks. If so, we can remove
+     *  the LeavesBlock subclassing to minimize the number of IDs we take up.
+     */
+    @Override
+    public void onBlockPlacedBy(World worldIn, BlockPos pos, BlockState state, @Nullable LivingEntity placer, ItemStack stack) {
+        super.onBlockPlacedBy(worldIn, pos, state, placer, stack);
+        if (!worldIn.isRemote) {
+            LeafOwnership.setOwners(worldIn, pos, 0);
+        }
+    }
+
+    /**
+     * Clears this position's ownership once the leaves are gone, so whatever replaces
+     * them starts fresh.
+     */
+    @Override
+    public void onReplaced(BlockState state, World worldIn, BlockPos pos, BlockState newState, boolean isMoving) {
+        super.onReplaced(state, worldIn, pos, newState, isMoving);
+        if (!worldIn.isRemote && newState.getBlock() != this) {
+            LeafOwnership.setOwners(worldIn, pos, 1);
+        }
+    }
+
+    /**
+     * Vanilla leaves recompute their distance to the nearest log whenever a neighbor
+     * changes, which floods across the whole canopy every time a tree grows a branch.
+     * Ours don't: whether leaves belong to a tree is tracked by their owners instead, and
+     * leaves left behind by a removed tree are decayed in one pass by LeafDecaySweep.
+     */
+    @Override
+    public BlockState updatePostPlacement(BlockState stateIn, Direction facing, BlockState facingState, IWorld worldIn, BlockPos currentPos, BlockPos facingPos) {
+        return stateIn;
+    }
+
+    /**
+     * Never scheduled by us; see {@link #updatePostPlacement}.
+     */
+    @Override
+    public void tick(BlockState state, World worldIn, BlockPos pos, Random random) {
+    }
+
+    /**
+     * Leaves don't decay on their own; see {@link #updatePostPlacement}.
+     */
+    @Override
+    public boolean ticksRandomly(BlockState state) {
+        return false;
+    }
+
     @Override
     public List<ItemStack> getDrops(BlockState state, LootContext.Builder builder) {
         ArrayList<ItemStack> drops = new ArrayList<>();
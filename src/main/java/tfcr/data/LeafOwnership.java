@@ -0,0 +1,217 @@
+package tfcr.data;
+
+import it.unimi.dsi.fastutil.shorts.Short2ByteMap;
+import it.unimi.dsi.fastutil.shorts.Short2ByteOpenHashMap;
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.util.Constants;
+import net.minecraftforge.common.util.INBTSerializable;
+import net.minecraftforge.event.world.ChunkDataEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import tfcr.TFCR;
+import tfcr.init.ModCapabilities;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tracks how many trees own each leaf block in a chunk. Attached to every chunk as a capability.
+ *
+ * Trees of the same wood type can share a canopy. When one of them grows or is removed,
+ * shared leaves have to stay in place for the other trees. This used to be a NUM_TREES
+ * property on the leaf block itself, which multiplied the number of leaf states by 17.
+ *
+ * Almost every leaf block belongs to exactly one tree, so that is what a missing entry
+ * means; only leaves with some other number of owners are stored here:
+ *
+ *  - 0: Not part of any tree. Leaves placed by a player are never removed by tree growth.
+ *  - 2 or more: Shared between that many trees.
+ *
+ * Leaves placed during worldgen are never tracked, since chunks don't have capabilities
+ * until they're fully generated; overlapping worldgen trees are counted as one owner.
+ *
+ * Chunks saved while leaves still had a NUM_TREES property are migrated as they load;
+ * see {@link #onChunkLoad}.
+ */
+@Mod.EventBusSubscriber
+public class LeafOwnership implements INBTSerializable<CompoundNBT> {
+
+    /**
+     * The most trees a single leaf block can belong to.
+     */
+    public static final int MAX_OWNERS = 16;
+
+    // Owner counts by position within the chunk; see key().
+    private final Short2ByteOpenHashMap owners = new Short2ByteOpenHashMap();
+
+    public LeafOwnership() {
+        owners.defaultReturnValue((byte) 1);
+    }
+
+    // Packs a position into 16 bits: 8 for y, and 4 each for the x and z within the chunk.
+    private static short key(BlockPos pos) {
+        return (short) (((pos.getY() & 0xFF) << 8) | ((pos.getZ() & 15) << 4) | (pos.getX() & 15));
+    }
+
+    /**
+     * @return How many trees own the leaf block at the given position.
+     */
+    public int getOwners(BlockPos pos) {
+        return owners.get(key(pos));
+    }
+
+    /**
+     * Sets how many trees own the leaf block at the given position.
+     * @return True if anything changed.
+     */
+    public boolean setOwners(BlockPos pos, int count) {
+        count = Math.max(0, Math.min(MAX_OWNERS, count));
+        if (count == 1) {
+            return owners.remove(key(pos)) != owners.defaultReturnValue();
+        }
+        return owners.put(key(pos), (byte) count) != count;
+    }
+
+    /**
+     * @return The number of leaves with an explicit owner count in this chunk.
+     */
+    public int size() {
+        return owners.size();
+    }
+
+    /**
+     * Gets the ownership data for the chunk containing the given position.
+     * @return The data, or null if the world doesn't have it; e.g., during worldgen.
+     */
+    @Nullable
+    public static LeafOwnership get(IWorld world, BlockPos pos) {
+        if (!(world instanceof World) || ModCapabilities.LEAF_OWNERSHIP == null) {
+            return null;
+        }
+        Chunk chunk = ((World) world).getChunkAt(pos);
+        return chunk.getCapability(ModCapabilities.LEAF_OWNERSHIP).orElse(null);
+    }
+
+    /**
+     * @return How many trees own the leaf block at the given position. Untracked leaves have one.
+     */
+    public static int getOwners(IWorld world, BlockPos pos) {
+        LeafOwnership ownership = get(world, pos);
+        return ownership == null ? 1 : ownership.getOwners(pos);
+    }
+
+    /**
+     * Sets how many trees own the leaf block at the given position, and marks the chunk
+     * to be saved. Does nothing if the world doesn't track ownership.
+     */
+    public static void setOwners(IWorld world, BlockPos pos, int count) {
+        LeafOwnership ownership = get(world, pos);
+        if (ownership != null && ownership.setOwners(pos, count)) {
+            ((World) world).getChunkAt(pos).markDirty();
+        }
+    }
+
+    @Override
+    public CompoundNBT serializeNBT() {
+        // Each entry is packed as (key << 8) | count.
+        int[] entries = new int[owners.size()];
+        int i = 0;
+        for (Short2ByteMap.Entry entry : owners.short2ByteEntrySet()) {
+            entries[i++] = ((entry.getShortKey() & 0xFFFF) << 8) | (entry.getByteValue() & 0xFF);
+        }
+
+        CompoundNBT compound = new CompoundNBT();
+        compound.putIntArray("owners", entries);
+        return compound;
+    }
+
+    @Override
+    public void deserializeNBT(CompoundNBT compound) {
+        owners.clear();
+        for (int entry : compound.getIntArray("owners")) {
+            owners.put((short) (entry >>> 8), (byte) entry);
+        }
+    }
+
+    /**
+     * Copies the owner counts out of the old NUM_TREES property of leaves in a chunk saved
+     * before this capability existed. The property itself is gone from the block states by
+     * the time the chunk is loaded, so this reads the saved palettes directly. Chunks saved
+     * since don't have the property, so this only ever does anything once per chunk.
+     */
+    @SubscribeEvent
+    public static void onChunkLoad(ChunkDataEvent.Load event) {
+        if (!(event.getChunk() instanceof Chunk)) {
+            return;
+        }
+        Chunk chunk = (Chunk) event.getChunk();
+        LeafOwnership ownership = chunk.getCapability(ModCapabilities.LEAF_OWNERSHIP).orElse(null);
+        if (ownership != null && migrateNumTrees(ownership, event.getData().getCompound("Level")) > 0) {
+            chunk.markDirty();
+        }
+    }
+
+    /**
+     * @param level The "Level" tag of a saved chunk.
+     * @return The number of leaves whose owner count was copied.
+     */
+    static int migrateNumTrees(LeafOwnership ownership, CompoundNBT level) {
+        int migrated = 0;
+        ListNBT sections = level.getList("Sections", Constants.NBT.TAG_COMPOUND);
+        for (int i = 0; i < sections.size(); i++) {
+            CompoundNBT section = sections.getCompound(i);
+            ListNBT palette = section.getList("Palette", Constants.NBT.TAG_COMPOUND);
+            long[] states = section.getLongArray("BlockStates");
+            if (palette.isEmpty() || states.length == 0) {
+                continue;
+            }
+
+            // The owner count of each palette entry; 1 (nothing to store) for anything but old leaves.
+            int[] counts = new int[palette.size()];
+            boolean any = false;
+            for (int p = 0; p < palette.size(); p++) {
+                CompoundNBT entry = palette.getCompound(p);
+                CompoundNBT properties = entry.getCompound("Properties");
+                counts[p] = 1;
+                if (entry.getString("Name").startsWith(TFCR.MODID + ":leaves/") && properties.contains("num_trees")) {
+                    try {
+                        counts[p] = Integer.parseInt(properties.getString("num_trees"));
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    any |= counts[p] != 1;
+                }
+            }
+            if (!any) {
+                continue;
+            }
+
+            // Block states are packed into the longs at a fixed number of bits each, and may
+            // span two longs.
+            int bits = states.length * 64 / 4096;
+            long mask = (1L << bits) - 1;
+            int baseY = section.getByte("Y") << 4;
+            for (int index = 0; index < 4096; index++) {
+                long bitIndex = (long) index * bits;
+                int start = (int) (bitIndex >> 6);
+                int end = (int) ((bitIndex + bits - 1) >> 6);
+                int offset = (int) (bitIndex & 63);
+                long value = states[start] >>> offset;
+                if (start != end) {
+                    value |= states[end] << (64 - offset);
+                }
+                int p = (int) (value & mask);
+                if (p < counts.length && counts[p] != 1) {
+                    BlockPos pos = new BlockPos(index & 15, baseY + (index >> 8), (index >> 4) & 15);
+                    ownership.setOwners(pos, counts[p]);
+                    migrated++;
+                }
+            }
+        }
+        return migrated;
+    }
+}
@@ -4,15 +4,19 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.World;
 import net.minecraft.world.biome.Biome;
-import net.minecraft.world.gen.INoiseRandom;
 import net.minecraft.world.gen.ImprovedNoiseGenerator;
 import tfcr.worldgen.biome.BaseTFCRBiome;
 
+import java.util.Random;
+
 // TODO: should there be a difference for air vs. ground vs. water temp?
 //  The baseline assumption is air temperature for these computations.
 public class TFCRTemperature {
 
-    private static boolean initialized = false;
+    private static volatile boolean initialized = false;
+
+    // The world seed we were last initialized from.
+    private static long seed;
 
     private static ImprovedNoiseGenerator noiseGenerator = null;
 
@@ -32,20 +36,30 @@ public class TFCRTemperature {
         return initialized;
     }
 
-    // Initialized by worldgen, see TempPrecipLayer
-    public static void initialize(INoiseRandom rand) {
-        // One-off setup
-        if (!initialized) {
-            tempOffsetX = 1 + rand.random(1000);
-            tempOffsetZ = 1 + rand.random(1000);
+    /**
+     * Sets up the temperature and precipitation noise for a world. This only depends on the
+     * world seed, so biome maps cached on disk (see BiomeRegionCache) always match what
+     * worldgen would make now. Called by BiomeProviderTFCR before it builds or reads any biomes;
+     * loading a world with a different seed sets the noise up again.
+     */
+    public static synchronized void initialize(long worldSeed) {
+        if (initialized && seed == worldSeed) {
+            return;
+        }
+
+        Random random = new Random(worldSeed);
+        ImprovedNoiseGenerator generator = new ImprovedNoiseGenerator(random);
 
-            precipOffsetX = 1 + rand.random(1000);
-            precipOffsetZ = 1 + rand.random(1000);
+        tempOffsetX = 1 + random.nextInt(1000);
+        tempOffsetZ = 1 + random.nextInt(1000);
 
-            noiseGenerator = rand.getNoiseGenerator();
+        precipOffsetX = 1 + random.nextInt(1000);
+        precipOffsetZ = 1 + random.nextInt(1000);
 
-            initialized = true;
-        }
+        noiseGenerator = generator;
+        seed = worldSeed;
+
+        initialized = true;
     }
 
     public static float getTemperature_01(BlockPos pos) {
@@ -0,0 +1,84 @@
+package tfcr.init;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.INBT;
+import net.minecraft.util.Direction;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.common.capabilities.Capability;
+import net.minecraftforge.common.capabilities.CapabilityInject;
+import net.minecraftforge.common.capabilities.CapabilityManager;
+import net.minecraftforge.common.capabilities.ICapabilitySerializable;
+import net.minecraftforge.common.util.LazyOptional;
+import net.minecraftforge.event.AttachCapabilitiesEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
+import tfcr.TFCR;
+import tfcr.data.LeafOwnership;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+@Mod.EventBusSubscriber(modid = TFCR.MODID, bus = Mod.EventBusSubscriber.Bus.MOD)
+public class ModCapabilities {
+
+    /**
+     * Per-chunk leaf ownership; see {@link LeafOwnership}.
+     */
+    @CapabilityInject(LeafOwnership.class)
+    public static Capability<LeafOwnership> LEAF_OWNERSHIP = null;
+
+    @SubscribeEvent
+    public static void registerCapabilities(FMLCommonSetupEvent event) {
+        System.out.println("Registering capabilities.");
+        CapabilityManager.INSTANCE.register(LeafOwnership.class, new Capability.IStorage<LeafOwnership>() {
+            @Nullable
+            @Override
+            public INBT writeNBT(Capability<LeafOwnership> capability, LeafOwnership instance, Direction side) {
+                return instance.serializeNBT();
+            }
+
+            @Override
+            public void readNBT(Capability<LeafOwnership> capability, LeafOwnership instance, Direction side, INBT nbt) {
+                instance.deserializeNBT((CompoundNBT) nbt);
+            }
+        }, LeafOwnership::new);
+    }
+
+    /**
+     * Attaches our capabilities to chunks. These events are on the Forge event bus, not Mod.
+     */
+    @Mod.EventBusSubscriber(modid = TFCR.MODID)
+    public static class Attach {
+
+        private static final ResourceLocation LEAF_OWNERSHIP_KEY = new ResourceLocation(TFCR.MODID, "leaf_ownership");
+
+        @SubscribeEvent
+        public static void attachChunkCapabilities(AttachCapabilitiesEvent<Chunk> event) {
+            event.addCapability(LEAF_OWNERSHIP_KEY, new LeafOwnershipProvider());
+        }
+    }
+
+    private static class LeafOwnershipProvider implements ICapabilitySerializable<CompoundNBT> {
+
+        private final LeafOwnership instance = new LeafOwnership();
+        private final LazyOptional<LeafOwnership> optional = LazyOptional.of(() -> instance);
+
+        @Nonnull
+        @Override
+        public <T> LazyOptional<T> getCapability(@Nonnull Capability<T> cap, @Nullable Direction side) {
+            return cap == LEAF_OWNERSHIP ? optional.cast() : LazyOptional.empty();
+        }
+
+        @Override
+        public CompoundNBT serializeNBT() {
+            return instance.serializeNBT();
+        }
+
+        @Override
+        public void deserializeNBT(CompoundNBT nbt) {
+            instance.deserializeNBT(nbt);
+        }
+    }
+}
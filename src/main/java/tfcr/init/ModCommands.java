@@ -0,0 +1,194 @@
+package tfcr.init;
+
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.Commands;
+import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.text.StringTextComponent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.server.FMLServerStartingEvent;
+import tfcr.TFCRConfig;
+import tfcr.utils.TreeMetrics;
+import tfcr.worldgen.BiomeRegionCache;
+import tfcr.worldgen.LayerStats;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Registers the "/tfcr" command.
+ *
+ *  - /tfcr perf trees: shows tree growth metrics; see {@link TreeMetrics}.
+ *  - /tfcr perf trees reset: clears them.
+ *  - /tfcr perf trees dump: appends them to the metrics file right away.
+ *  - /tfcr perf layers: shows biome layer cache stats; see {@link LayerStats}.
+ *  - /tfcr perf layers reset: clears them.
+ *  - /tfcr biomes pregen <radius>: caches the biome map within radius blocks, in the background; see {@link BiomeRegionCache}.
+ *  - /tfcr biomes pregen cancel: stops it.
+ */
+@Mod.EventBusSubscriber
+public class ModCommands {
+
+    // How often a running pregeneration reports its progress.
+    private static final long PREGEN_REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(10);
+
+    // One pregeneration at a time, on its own thread.
+    private static final ExecutorService pregenExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TFCR Biome Pregen");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final AtomicBoolean pregenRunning = new AtomicBoolean();
+    private static volatile boolean pregenCancelled;
+
+    @SubscribeEvent
+    public static void onServerStarting(FMLServerStartingEvent event) {
+        register(event.getCommandDispatcher());
+    }
+
+    private static void register(CommandDispatcher<CommandSource> dispatcher) {
+        dispatcher.register(Commands.literal("tfcr")
+                .requires(source -> source.hasPermissionLevel(2))
+                .then(Commands.literal("perf")
+                        .then(Commands.literal("trees")
+                                .executes(ModCommands::showTreeMetrics)
+                                .then(Commands.literal("reset").executes(ModCommands::resetTreeMetrics))
+                                .then(Commands.literal("dump").executes(ModCommands::dumpTreeMetrics)))
+                        .then(Commands.literal("layers")
+                                .executes(ModCommands::showLayerStats)
+                                .then(Commands.literal("reset").executes(ModCommands::resetLayerStats))))
+                .then(Commands.literal("biomes")
+                        .then(Commands.literal("pregen")
+                                .then(Commands.literal("cancel").executes(ModCommands::cancelPregeneration))
+                                .then(Commands.argument("radius", IntegerArgumentType.integer(0, 16384))
+                                        .executes(ModCommands::pregenerateBiomes)))));
+    }
+
+    private static int showTreeMetrics(CommandContext<CommandSource> context) {
+        CommandSource source = context.getSource();
+        for (String line : TreeMetrics.getReport(source.getServer())) {
+            source.sendFeedback(new StringTextComponent(line), false);
+        }
+        return 1;
+    }
+
+    private static int resetTreeMetrics(CommandContext<CommandSource> context) {
+        TreeMetrics.reset();
+        context.getSource().sendFeedback(new StringTextComponent("Tree metrics reset."), true);
+        return 1;
+    }
+
+    private static int showLayerStats(CommandContext<CommandSource> context) {
+        CommandSource source = context.getSource();
+        for (String line : LayerStats.getReport()) {
+            source.sendFeedback(new StringTextComponent(line), false);
+        }
+        return 1;
+    }
+
+    private static int resetLayerStats(CommandContext<CommandSource> context) {
+        LayerStats.reset();
+        context.getSource().sendFeedback(new StringTextComponent("Layer stats reset."), true);
+        return 1;
+    }
+
+    private static int pregenerateBiomes(CommandContext<CommandSource> context) {
+        CommandSource source = context.getSource();
+        BiomeRegionCache cache = BiomeRegionCache.get(source.getWorld());
+        if (cache == null) {
+            source.sendErrorMessage(new StringTextComponent("This world doesn't cache its biome map."));
+            return 0;
+        }
+        if (!pregenRunning.compareAndSet(false, true)) {
+            source.sendErrorMessage(new StringTextComponent("Biomes are already being pregenerated; see \"/tfcr biomes pregen cancel\"."));
+            return 0;
+        }
+        pregenCancelled = false;
+
+        int radius = IntegerArgumentType.getInteger(context, "radius");
+        Vec3d center = source.getPos();
+        int minRegionX = ((int) Math.floor(center.x) - radius) >> 9;
+        int maxRegionX = ((int) Math.floor(center.x) + radius) >> 9;
+        int minRegionZ = ((int) Math.floor(center.z) - radius) >> 9;
+        int maxRegionZ = ((int) Math.floor(center.z) + radius) >> 9;
+        int total = (maxRegionX - minRegionX + 1) * (maxRegionZ - minRegionZ + 1);
+
+        source.sendFeedback(new StringTextComponent(String.format("Pregenerating biomes for %d regions.", total)), true);
+
+        // A large radius takes minutes, so this runs in the background and the server keeps ticking.
+        // Each region is still generated in parallel by the layer.
+        pregenExecutor.execute(() -> {
+            long start = System.nanoTime();
+            long lastReport = start;
+            int done = 0;
+            int generated = 0;
+            try {
+                for (int regionZ = minRegionZ; regionZ <= maxRegionZ && !pregenCancelled; regionZ++) {
+                    for (int regionX = minRegionX; regionX <= maxRegionX && !pregenCancelled; regionX++) {
+                        if (BiomeRegionCache.get(source.getWorld()) != cache) {
+                            // The world unloaded.
+                            pregenCancelled = true;
+                            break;
+                        }
+                        if (cache.pregenerate(regionX, regionZ)) {
+                            generated++;
+                        }
+                        done++;
+
+                        if (System.nanoTime() - lastReport > PREGEN_REPORT_INTERVAL) {
+                            lastReport = System.nanoTime();
+                            sendFromBackground(source, String.format("Pregenerating biomes: %d of %d regions done.", done, total));
+                        }
+                    }
+                }
+                cache.save();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                sendFromBackground(source, "Failed to pregenerate biomes: " + e.getMessage());
+                return;
+            } finally {
+                pregenRunning.set(false);
+            }
+
+            sendFromBackground(source, String.format("%s biomes for %d of %d regions in %.1f s (%d already cached).",
+                    pregenCancelled ? "Stopped after generating" : "Generated",
+                    generated, total, (System.nanoTime() - start) / 1e9, done - generated));
+        });
+        return total;
+    }
+
+    private static int cancelPregeneration(CommandContext<CommandSource> context) {
+        if (!pregenRunning.get()) {
+            context.getSource().sendErrorMessage(new StringTextComponent("Biomes aren't being pregenerated."));
+            return 0;
+        }
+        pregenCancelled = true;
+        context.getSource().sendFeedback(new StringTextComponent("Stopping biome pregeneration."), true);
+        return 1;
+    }
+
+    // Command feedback has to be sent from the server thread.
+    private static void sendFromBackground(CommandSource source, String message) {
+        source.getServer().execute(() -> source.sendFeedback(new StringTextComponent(message), true));
+    }
+
+    private static int dumpTreeMetrics(CommandContext<CommandSource> context) {
+        CommandSource source = context.getSource();
+        try {
+            Path path = TreeMetrics.dump(source.getServer(), TFCRConfig.metricsDumpFormat.get());
+            source.sendFeedback(new StringTextComponent("Wrote tree metrics to " + path), false);
+            return 1;
+        } catch (IOException e) {
+            e.printStackTrace();
+            source.sendErrorMessage(new StringTextComponent("Failed to write tree metrics: " + e.getMessage()));
+            return 0;
+        }
+    }
+}
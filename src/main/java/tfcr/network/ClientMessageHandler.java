@@ -0,0 +1,29 @@
+package tfcr.network;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.api.distmarker.OnlyIn;
+import tfcr.tileentity.TreeTileEntity;
+
+/**
+ * Applies messages on the client. Kept separate so the server never loads client classes.
+ */
+@OnlyIn(Dist.CLIENT)
+public class ClientMessageHandler {
+
+    public static void handleTreeSync(TreeSyncMessage message) {
+        ClientWorld world = Minecraft.getInstance().world;
+        if (world == null) {
+            return;
+        }
+
+        for (int i = 0; i < message.size(); i++) {
+            TileEntity tileEntity = world.getTileEntity(message.getPos(i));
+            if (tileEntity instanceof TreeTileEntity) {
+                ((TreeTileEntity) tileEntity).applySync(message.getAge(i), message.getVariant(i));
+            }
+        }
+    }
+}
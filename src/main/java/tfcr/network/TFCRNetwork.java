@@ -0,0 +1,29 @@
+package tfcr.network;
+
+import net.minecraft.util.ResourceLocation;
+import net.minecraftforge.fml.network.NetworkRegistry;
+import net.minecraftforge.fml.network.simple.SimpleChannel;
+import tfcr.TFCR;
+
+/**
+ * The mod's network channel, and the messages sent over it.
+ */
+public class TFCRNetwork {
+
+    // Bump this whenever a message changes, so mismatched clients are refused.
+    private static final String PROTOCOL_VERSION = "1";
+
+    public static final SimpleChannel CHANNEL = NetworkRegistry.newSimpleChannel(
+            new ResourceLocation(TFCR.MODID, "main"),
+            () -> PROTOCOL_VERSION,
+            PROTOCOL_VERSION::equals,
+            PROTOCOL_VERSION::equals);
+
+    /**
+     * Registers every message. Called once, from the mod constructor.
+     */
+    public static void register() {
+        int id = 0;
+        CHANNEL.registerMessage(id++, TreeSyncMessage.class, TreeSyncMessage::encode, TreeSyncMessage::decode, TreeSyncMessage::handle);
+    }
+}
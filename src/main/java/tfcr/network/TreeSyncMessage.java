@@ -0,0 +1,89 @@
+package tfcr.network;
+
+import net.minecraft.network.PacketBuffer;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.fml.DistExecutor;
+import net.minecraftforge.fml.network.NetworkEvent;
+
+import java.util.function.Supplier;
+
+/**
+ * Tells clients the age and variant of every tree in a chunk that changed this tick.
+ *
+ * Each tree takes 4 bytes: its position within the chunk, its age and its variant.
+ * This replaces sending the whole TileEntity NBT every time a tree's root block changes.
+ */
+public class TreeSyncMessage {
+
+    private final int chunkX;
+    private final int chunkZ;
+
+    // Position within the chunk; see pack().
+    private final short[] positions;
+    private final byte[] ages;
+    private final byte[] variants;
+
+    public TreeSyncMessage(ChunkPos chunkPos, short[] positions, byte[] ages, byte[] variants) {
+        this.chunkX = chunkPos.x;
+        this.chunkZ = chunkPos.z;
+        this.positions = positions;
+        this.ages = ages;
+        this.variants = variants;
+    }
+
+    /**
+     * Packs a position into 16 bits: 8 for y, and 4 each for the x and z within the chunk.
+     */
+    public static short pack(BlockPos pos) {
+        return (short) (((pos.getY() & 0xFF) << 8) | ((pos.getZ() & 15) << 4) | (pos.getX() & 15));
+    }
+
+    public BlockPos getPos(int index) {
+        int packed = positions[index] & 0xFFFF;
+        return new BlockPos((chunkX << 4) | (packed & 15), packed >>> 8, (chunkZ << 4) | ((packed >>> 4) & 15));
+    }
+
+    public int size() {
+        return positions.length;
+    }
+
+    public int getAge(int index) {
+        return ages[index];
+    }
+
+    public int getVariant(int index) {
+        return variants[index];
+    }
+
+    public static void encode(TreeSyncMessage message, PacketBuffer buffer) {
+        buffer.writeInt(message.chunkX);
+        buffer.writeInt(message.chunkZ);
+        buffer.writeVarInt(message.positions.length);
+        for (int i = 0; i < message.positions.length; i++) {
+            buffer.writeShort(message.positions[i]);
+            buffer.writeByte(message.ages[i]);
+            buffer.writeByte(message.variants[i]);
+        }
+    }
+
+    public static TreeSyncMessage decode(PacketBuffer buffer) {
+        ChunkPos chunkPos = new ChunkPos(buffer.readInt(), buffer.readInt());
+        int count = buffer.readVarInt();
+        short[] positions = new short[count];
+        byte[] ages = new byte[count];
+        byte[] variants = new byte[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = buffer.readShort();
+            ages[i] = buffer.readByte();
+            variants[i] = buffer.readByte();
+        }
+        return new TreeSyncMessage(chunkPos, positions, ages, variants);
+    }
+
+    public static void handle(TreeSyncMessage message, Supplier<NetworkEvent.Context> context) {
+        context.get().enqueueWork(() -> DistExecutor.runWhenOn(Dist.CLIENT, () -> () -> ClientMessageHandler.handleTreeSync(message)));
+        context.get().setPacketHandled(true);
+    }
+}
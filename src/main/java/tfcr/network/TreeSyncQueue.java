@@ -0,0 +1,108 @@
+package tfcr.network;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.network.PacketDistributor;
+import tfcr.tileentity.TreeTileEntity;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Collects trees whose client-visible state changed, and sends them at the end of the
+ * world tick: one {@link TreeSyncMessage} per chunk, to the players tracking that chunk.
+ * A tree that changes several times in a tick is only sent once.
+ */
+@Mod.EventBusSubscriber
+public class TreeSyncQueue {
+
+    // Per server world, the positions of changed trees, grouped by ChunkPos.asLong().
+    private static final Map<IWorld, Long2ObjectOpenHashMap<LongSet>> pending = new HashMap<>();
+
+    /**
+     * Queues a tree to be sent to clients at the end of this tick.
+     */
+    public static void markDirty(TreeTileEntity tree) {
+        World world = tree.getWorld();
+        if (world == null || world.isRemote) {
+            return;
+        }
+
+        BlockPos pos = tree.getPos();
+        pending.computeIfAbsent(world, w -> new Long2ObjectOpenHashMap<>())
+                .computeIfAbsent(ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4), key -> new LongLinkedOpenHashSet())
+                .add(pos.toLong());
+    }
+
+    @SubscribeEvent
+    public static void onWorldTick(TickEvent.WorldTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || event.world.isRemote) {
+            return;
+        }
+
+        Long2ObjectOpenHashMap<LongSet> chunks = pending.get(event.world);
+        if (chunks == null || chunks.isEmpty()) {
+            return;
+        }
+
+        for (Long2ObjectMap.Entry<LongSet> entry : chunks.long2ObjectEntrySet()) {
+            send(event.world, new ChunkPos(entry.getLongKey()), entry.getValue());
+        }
+        chunks.clear();
+    }
+
+    private static void send(World world, ChunkPos chunkPos, LongSet positions) {
+        if (!world.chunkExists(chunkPos.x, chunkPos.z)) {
+            return;
+        }
+
+        short[] packedPositions = new short[positions.size()];
+        byte[] ages = new byte[positions.size()];
+        byte[] variants = new byte[positions.size()];
+        int count = 0;
+        for (long packed : positions) {
+            BlockPos pos = BlockPos.fromLong(packed);
+            TileEntity tileEntity = world.getTileEntity(pos);
+            if (!(tileEntity instanceof TreeTileEntity)) {
+                continue;
+            }
+
+            TreeTileEntity tree = (TreeTileEntity) tileEntity;
+            packedPositions[count] = TreeSyncMessage.pack(pos);
+            ages[count] = (byte) tree.getAge();
+            variants[count] = (byte) tree.getVariant();
+            count++;
+        }
+        if (count == 0) {
+            return;
+        }
+
+        if (count < packedPositions.length) {
+            packedPositions = Arrays.copyOf(packedPositions, count);
+            ages = Arrays.copyOf(ages, count);
+            variants = Arrays.copyOf(variants, count);
+        }
+
+        Chunk chunk = world.getChunk(chunkPos.x, chunkPos.z);
+        TFCRNetwork.CHANNEL.send(PacketDistributor.TRACKING_CHUNK.with(() -> chunk),
+                new TreeSyncMessage(chunkPos, packedPositions, ages, variants));
+    }
+
+    @SubscribeEvent
+    public static void onWorldUnload(WorldEvent.Unload event) {
+        pending.remove(event.getWorld());
+    }
+}
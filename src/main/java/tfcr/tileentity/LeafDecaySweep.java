@@ -0,0 +1,140 @@
+package tfcr.tileentity;
+
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import tfcr.blocks.LeavesBlock;
+import tfcr.data.LeafOwnership;
+import tfcr.data.WoodType;
+import tfcr.utils.BatchedTreeBlockWriter;
+import tfcr.utils.TreeFootprintIndex;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Decays the leaves a removed tree leaves behind, in one pass.
+ *
+ * TFCR leaves don't track their distance to the nearest log; see
+ * {@link LeavesBlock#updatePostPlacement}. Whether they're part of a tree is decided by
+ * their owners instead, which removing a tree already takes care of for every leaf in
+ * its template. Anything left over (e.g. leaves the tree grew into that weren't in its
+ * current template) is swept up here: once a tree is removed, we schedule a sweep of
+ * its bounding box, and remove every leaf of its wood type there that isn't placed by a
+ * player and isn't inside any other loaded tree's footprint.
+ */
+@Mod.EventBusSubscriber
+public class LeafDecaySweep {
+
+    // How long after a tree is removed to sweep its leaves, in ticks.
+    private static final int DELAY = 20;
+
+    // Sweeps wait until every tree that could reach into the box is loaded.
+    private static final int LOADED_MARGIN = 16;
+
+    // How long to wait before trying a sweep again, if its area wasn't loaded, in ticks.
+    private static final int RETRY_DELAY = 20 * 60;
+
+    private static final List<Sweep> sweeps = new ArrayList<>();
+
+    private static class Sweep {
+        final World world;
+        final MutableBoundingBox bounds;
+        final WoodType woodType;
+        final long dueTime;
+
+        Sweep(World world, MutableBoundingBox bounds, WoodType woodType, long dueTime) {
+            this.world = world;
+            this.bounds = bounds;
+            this.woodType = woodType;
+            this.dueTime = dueTime;
+        }
+    }
+
+    /**
+     * Schedules a sweep of the leaves in the given box.
+     * @param world The (server) world the tree was in.
+     * @param bounds The bounding box of the removed tree.
+     * @param woodType The wood type of the removed tree. Only leaves of this type decay.
+     */
+    public static void schedule(World world, MutableBoundingBox bounds, WoodType woodType) {
+        sweeps.add(new Sweep(world, new MutableBoundingBox(bounds), woodType, world.getGameTime() + DELAY));
+    }
+
+    /**
+     * Removes every orphaned leaf block in the sweep's box.
+     * @return The number of leaves removed, or -1 if the area wasn't loaded.
+     */
+    private static int run(Sweep sweep) {
+        World world = sweep.world;
+        MutableBoundingBox bounds = sweep.bounds;
+
+        BlockPos center = new BlockPos((bounds.minX + bounds.maxX) / 2, (bounds.minY + bounds.maxY) / 2, (bounds.minZ + bounds.maxZ) / 2);
+        int radius = Math.max(bounds.getXSize(), bounds.getZSize()) / 2 + LOADED_MARGIN;
+        if (!world.isAreaLoaded(center, radius)) {
+            return -1;
+        }
+
+        List<TreeFootprintIndex.Footprint> others = TreeFootprintIndex.get(world).getOverlapping(bounds);
+        BatchedTreeBlockWriter writer = new BatchedTreeBlockWriter(world);
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+
+        for (int y = bounds.minY; y <= bounds.maxY; y++) {
+            for (int z = bounds.minZ; z <= bounds.maxZ; z++) {
+                for (int x = bounds.minX; x <= bounds.maxX; x++) {
+                    pos.setPos(x, y, z);
+                    BlockState state = world.getBlockState(pos);
+                    if (!(state.getBlock() instanceof LeavesBlock) || ((LeavesBlock) state.getBlock()).woodType != sweep.woodType) {
+                        continue;
+                    }
+                    if (LeafOwnership.getOwners(world, pos) == 0 || TreeFootprintIndex.isInsideAny(others, pos)) {
+                        continue;
+                    }
+
+                    Block.spawnDrops(state, world, pos);
+                    writer.removeBlock(pos);
+                }
+            }
+        }
+
+        int removed = writer.getRemovedCount();
+        writer.flush();
+        return removed;
+    }
+
+    @SubscribeEvent
+    public static void onWorldTick(TickEvent.WorldTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || event.world.isRemote || sweeps.isEmpty()) {
+            return;
+        }
+
+        long now = event.world.getGameTime();
+        List<Sweep> retries = new ArrayList<>();
+        Iterator<Sweep> iterator = sweeps.iterator();
+        while (iterator.hasNext()) {
+            Sweep sweep = iterator.next();
+            if (sweep.world == event.world && sweep.dueTime <= now) {
+                iterator.remove();
+                if (run(sweep) == -1) {
+                    // Try again later, instead of leaving the leaves floating.
+                    retries.add(new Sweep(sweep.world, sweep.bounds, sweep.woodType, now + RETRY_DELAY));
+                }
+            }
+        }
+        sweeps.addAll(retries);
+    }
+
+    @SubscribeEvent
+    public static void onWorldUnload(WorldEvent.Unload event) {
+        IWorld world = event.getWorld();
+        sweeps.removeIf(sweep -> sweep.world == world);
+    }
+}
@@ -0,0 +1,222 @@
+package tfcr.tileentity;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.item.ItemStack;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.ServerWorld;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.eventbus.api.EventPriority;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.items.ItemHandlerHelper;
+import tfcr.TFCRConfig;
+import tfcr.blocks.BranchBlock;
+import tfcr.blocks.IBlockWood;
+import tfcr.blocks.LeavesBlock;
+import tfcr.blocks.LogBlock;
+import tfcr.data.LeafOwnership;
+import tfcr.data.WoodType;
+import tfcr.utils.BatchedTreeBlockWriter;
+import tfcr.utils.CompiledTreeTemplate;
+import tfcr.utils.TreeFootprintIndex;
+import tfcr.utils.TreeTemplateCache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fells a whole tree when the block at its root is broken.
+ *
+ * Breaking a trunk used to leave any part of the tree that wasn't in its current
+ * template (e.g. blocks it grew into, or that the player built onto it) floating, with
+ * the leaves decaying one block at a time. Instead, we walk the tree from its root:
+ * every branch or log of the same wood type reachable through other branches and logs,
+ * plus the leaves around them. Everything found is removed in a single batched pass, and
+ * the drops are merged into as few item stacks as possible before being dropped at the root.
+ *
+ * The walk never crosses into another tree: it stays inside the bounding box of this
+ * tree's current template, skips anything inside another loaded tree's footprint (see
+ * {@link TreeFootprintIndex}), stops at other trees' roots, and never goes from leaves
+ * back into wood. Leaves shared with another tree only lose this tree as an owner (see
+ * {@link LeafOwnership}), and player-placed leaves are left alone. The walk is bounded
+ * by {@link TFCRConfig#maxFelledBlocks}.
+ */
+@Mod.EventBusSubscriber
+public class TreeFeller {
+
+    // How far leaves may be from the nearest branch and still count as part of the tree.
+    // Matches the furthest distance vanilla leaves survive at.
+    private static final int MAX_LEAF_DISTANCE = 6;
+
+    // Run after protection mods have had a chance to cancel the break.
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    public static void onBlockBreak(BlockEvent.BreakEvent event) {
+        IWorld world = event.getWorld();
+        if (world.isRemote() || !(world instanceof ServerWorld)) {
+            return;
+        }
+
+        Block block = event.getState().getBlock();
+        if (!(block instanceof BranchBlock || block instanceof LogBlock)) {
+            return;
+        }
+
+        TileEntity tileEntity = world.getTileEntity(event.getPos());
+        if (!(tileEntity instanceof TreeTileEntity) || TFCRConfig.maxFelledBlocks.get() <= 0) {
+            return;
+        }
+
+        fell((ServerWorld) world, event.getPos(), ((IBlockWood) block).getWoodType(), (TreeTileEntity) tileEntity, event.getPlayer());
+    }
+
+    /**
+     * Removes every block of the tree at the given root, except the root itself (which is
+     * being broken by the player), and drops their items at the root.
+     * @return The number of blocks removed.
+     */
+    public static int fell(ServerWorld world, BlockPos root, WoodType woodType, TreeTileEntity tree, PlayerEntity player) {
+        LongArrayList wood = new LongArrayList();
+        LongArrayList leaves = new LongArrayList();
+        CompiledTreeTemplate template = TreeTemplateCache.get(world, woodType, tree.getAge(), tree.getVariant());
+        if (template != null) {
+            MutableBoundingBox bounds = template.getBounds(root);
+            List<TreeFootprintIndex.Footprint> others = TreeFootprintIndex.get(world).getOverlapping(bounds, root);
+            findTree(world, root, woodType, bounds, others, TFCRConfig.maxFelledBlocks.get(), wood, leaves);
+        }
+
+        BatchedTreeBlockWriter writer = new BatchedTreeBlockWriter(world);
+        boolean dropItems = !player.abilities.isCreativeMode;
+        ItemStack tool = player.getHeldItemMainhand();
+        List<ItemStack> drops = new ArrayList<>();
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+
+        for (long packed : wood) {
+            pos.setPos(BlockPos.unpackX(packed), BlockPos.unpackY(packed), BlockPos.unpackZ(packed));
+            if (dropItems) {
+                addDrops(drops, world, pos, player, tool);
+            }
+            writer.removeBlock(pos);
+        }
+
+        for (long packed : leaves) {
+            pos.setPos(BlockPos.unpackX(packed), BlockPos.unpackY(packed), BlockPos.unpackZ(packed));
+            int owners = writer.getLeafOwners(pos);
+            if (owners > 1) {
+                // Still part of another tree.
+                writer.setLeafOwners(pos, owners - 1);
+                continue;
+            }
+            if (dropItems) {
+                addDrops(drops, world, pos, player, tool);
+            }
+            writer.removeBlock(pos);
+        }
+
+        tree.markFelled();
+        writer.flush();
+
+        for (ItemStack stack : drops) {
+            Block.spawnAsEntity(world, root, stack);
+        }
+        return writer.getRemovedCount();
+    }
+
+    /**
+     * Finds the blocks of the tree at the given root, with a breadth first search.
+     * @param world The world the tree is in.
+     * @param root The position of the tree's root. Not included in the results.
+     * @param woodType The wood type of the tree.
+     * @param bounds The bounding box of the tree. Nothing outside it is found.
+     * @param others The footprints of the other trees overlapping the box. Nothing inside them is found.
+     * @param maxBlocks The most blocks to find.
+     * @param wood Filled with the positions of every branch and log found.
+     * @param leaves Filled with the positions of every leaf block found, including shared ones.
+     */
+    public static void findTree(World world, BlockPos root, WoodType woodType, MutableBoundingBox bounds,
+                                List<TreeFootprintIndex.Footprint> others, int maxBlocks, LongArrayList wood, LongArrayList leaves) {
+        // The distance of every visited position to the nearest wood; 0 for wood itself.
+        Long2IntOpenHashMap visited = new Long2IntOpenHashMap();
+        visited.defaultReturnValue(-1);
+        LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+
+        visited.put(root.toLong(), 0);
+        queue.enqueue(root.toLong());
+
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        while (!queue.isEmpty() && wood.size() + leaves.size() < maxBlocks) {
+            long current = queue.dequeueLong();
+            int distance = visited.get(current);
+
+            for (Direction direction : Direction.values()) {
+                long neighbor = BlockPos.offset(current, direction);
+                if (visited.containsKey(neighbor)) {
+                    continue;
+                }
+                pos.setPos(BlockPos.unpackX(neighbor), BlockPos.unpackY(neighbor), BlockPos.unpackZ(neighbor));
+                if (!bounds.isVecInside(pos) || TreeFootprintIndex.isInsideAny(others, pos)) {
+                    continue;
+                }
+                BlockState state = world.getBlockState(pos);
+                Block block = state.getBlock();
+
+                if ((block instanceof BranchBlock || block instanceof LogBlock) && ((IBlockWood) block).getWoodType() == woodType) {
+                    // Only follow wood through wood, and never into another tree's root.
+                    if (distance != 0 || world.getTileEntity(pos) instanceof TreeTileEntity) {
+                        continue;
+                    }
+                    visited.put(neighbor, 0);
+                    wood.add(neighbor);
+                    queue.enqueue(neighbor);
+                } else if (block instanceof LeavesBlock && ((LeavesBlock) block).getWoodType() == woodType) {
+                    if (distance + 1 > MAX_LEAF_DISTANCE) {
+                        continue;
+                    }
+                    int owners = LeafOwnership.getOwners(world, pos);
+                    if (owners == 0) {
+                        // Placed by a player.
+                        continue;
+                    }
+                    visited.put(neighbor, distance + 1);
+                    leaves.add(neighbor);
+                    // Leaves shared with another tree are the edge of this one.
+                    if (owners == 1) {
+                        queue.enqueue(neighbor);
+                    }
+                }
+
+                if (wood.size() + leaves.size() >= maxBlocks) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Adds the drops of the block at pos to the list, merging them into existing stacks where possible.
+    private static void addDrops(List<ItemStack> drops, ServerWorld world, BlockPos pos, PlayerEntity player, ItemStack tool) {
+        for (ItemStack stack : Block.getDrops(world.getBlockState(pos), world, pos, null, player, tool)) {
+            for (ItemStack existing : drops) {
+                if (stack.isEmpty()) {
+                    break;
+                }
+                if (ItemHandlerHelper.canItemStacksStack(existing, stack)) {
+                    int moved = Math.min(stack.getCount(), existing.getMaxStackSize() - existing.getCount());
+                    existing.grow(moved);
+                    stack.shrink(moved);
+                }
+            }
+            if (!stack.isEmpty()) {
+                drops.add(stack.copy());
+            }
+        }
+    }
+}
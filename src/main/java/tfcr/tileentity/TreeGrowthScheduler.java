@@ -0,0 +1,165 @@
+package tfcr.tileentity;
+
+import net.minecraft.world.IWorld;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A per-world scheduler for tree growth.
+ *
+ * TreeTileEntities used to tick every game tick just to increment a counter, and
+ * only did actual work once per growth interval. Instead, each tree registers
+ * itself here with the game time at which it should next grow, and we only touch
+ * trees whose due time has passed. Idle trees cost nothing per tick.
+ *
+ * Entries are kept in a priority queue ordered by due time. Cancelling an entry
+ * (e.g., when the tree is removed or its chunk unloads) flags it and lets go of
+ * the tree, so a removed tree (and its world) isn't kept alive until its due time.
+ * The flagged entry is dropped once it reaches the head of the queue, or once
+ * cancelled entries make up half the queue, whichever is first.
+ *
+ * Due trees aren't grown here directly; they go through the {@link TreeGrowthWorkQueue},
+ * which limits how much time growth may take per tick.
+ */
+@Mod.EventBusSubscriber
+public class TreeGrowthScheduler {
+
+    /**
+     * One scheduler per server world. Client worlds never register trees.
+     */
+    private static final Map<IWorld, TreeGrowthScheduler> schedulers = new HashMap<>();
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+
+    // Purging isn't worth it for fewer cancelled entries than this.
+    private static final int MIN_PURGE = 64;
+
+    // The number of cancelled entries still in the queue.
+    private int cancelledCount = 0;
+
+    /**
+     * A handle to a single scheduled growth. Held by the TreeTileEntity so it can
+     * cancel its growth later.
+     */
+    public static class Entry implements Comparable<Entry> {
+        private final TreeGrowthScheduler scheduler;
+        private TreeTileEntity tree;
+        private final long dueTime;
+        private boolean cancelled = false;
+        // Whether this entry is still in the scheduler's queue.
+        private boolean queued = true;
+
+        private Entry(TreeGrowthScheduler scheduler, TreeTileEntity tree, long dueTime) {
+            this.scheduler = scheduler;
+            this.tree = tree;
+            this.dueTime = dueTime;
+        }
+
+        public long getDueTime() {
+            return dueTime;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return The tree to grow, or null if this entry has been cancelled.
+         */
+        TreeTileEntity getTree() {
+            return tree;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(this.dueTime, other.dueTime);
+        }
+    }
+
+    /**
+     * Schedules a tree to grow at the given game time.
+     * @param world The (server) world the tree lives in.
+     * @param tree The tree to schedule.
+     * @param dueTime The game time, in ticks, at which the tree should grow.
+     * @return A handle that can be passed to {@link #cancel(Entry)}.
+     */
+    public static Entry schedule(World world, TreeTileEntity tree, long dueTime) {
+        TreeGrowthScheduler scheduler = schedulers.computeIfAbsent(world, w -> new TreeGrowthScheduler());
+        Entry entry = new Entry(scheduler, tree, dueTime);
+        scheduler.queue.add(entry);
+        return entry;
+    }
+
+    /**
+     * Cancels a previously scheduled growth. Safe to call with null or with an
+     * entry that has already fired.
+     */
+    public static void cancel(Entry entry) {
+        if (entry == null || entry.cancelled) {
+            return;
+        }
+        entry.cancelled = true;
+        entry.tree = null;
+        if (entry.queued) {
+            entry.scheduler.onCancelled();
+        }
+    }
+
+    // Drops every cancelled entry once they make up half the queue.
+    private void onCancelled() {
+        cancelledCount++;
+        if (cancelledCount > MIN_PURGE && cancelledCount * 2 > queue.size()) {
+            queue.removeIf(entry -> {
+                entry.queued = !entry.cancelled;
+                return entry.cancelled;
+            });
+            cancelledCount = 0;
+        }
+    }
+
+    /**
+     * @return The number of entries (including cancelled ones not yet dropped)
+     *  queued for the given world.
+     */
+    public static int getQueueSize(IWorld world) {
+        TreeGrowthScheduler scheduler = schedulers.get(world);
+        return scheduler == null ? 0 : scheduler.queue.size();
+    }
+
+    // Hands every tree whose due time has passed to the work queue.
+    private void tick(long now) {
+        while (!queue.isEmpty() && queue.peek().dueTime <= now) {
+            Entry entry = queue.poll();
+            entry.queued = false;
+            if (entry.cancelled) {
+                cancelledCount--;
+                continue;
+            }
+            TreeGrowthWorkQueue.submit(entry);
+        }
+    }
+
+    @SubscribeEvent
+    public static void onWorldTick(TickEvent.WorldTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || event.world.isRemote) {
+            return;
+        }
+
+        TreeGrowthScheduler scheduler = schedulers.get(event.world);
+        if (scheduler != null) {
+            scheduler.tick(event.world.getGameTime());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onWorldUnload(WorldEvent.Unload event) {
+        schedulers.remove(event.getWorld());
+    }
+}
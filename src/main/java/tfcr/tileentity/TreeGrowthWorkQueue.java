@@ -0,0 +1,109 @@
+package tfcr.tileentity;
+
+import net.minecraft.world.IWorld;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import tfcr.TFCRConfig;
+
+import java.util.ArrayDeque;
+
+/**
+ * Runs tree growth under a per-tick time budget.
+ *
+ * Growing a tree (cleaning up the old stage, stamping the new one, and handing off
+ * to the new root TileEntity) is relatively slow. When a lot of trees become due on
+ * the same tick, e.g. after a chunk full of saplings loads, doing them all at once
+ * stalls the server. Instead, the {@link TreeGrowthScheduler} submits due trees here,
+ * and at the end of every server tick we grow them in order until the configured
+ * budget is spent. Anything left over carries over to the next tick.
+ *
+ * At least one tree is grown per tick, so the queue always makes progress.
+ */
+@Mod.EventBusSubscriber
+public class TreeGrowthWorkQueue {
+
+    // Shared by all worlds, so the budget is per server tick rather than per world.
+    private static final ArrayDeque<TreeGrowthScheduler.Entry> jobs = new ArrayDeque<>();
+
+    // Jobs left in the queue at the end of the last tick.
+    private static int deferredLastTick = 0;
+    // Total number of times a job was carried over to a later tick.
+    private static long totalDeferred = 0;
+    // Total number of jobs run.
+    private static long totalProcessed = 0;
+
+    /**
+     * Queues a tree whose growth is due.
+     */
+    static void submit(TreeGrowthScheduler.Entry entry) {
+        jobs.add(entry);
+    }
+
+    /**
+     * @return The number of growth jobs waiting to run.
+     */
+    public static int getQueueDepth() {
+        return jobs.size();
+    }
+
+    /**
+     * @return The number of jobs that didn't fit in the last tick's budget.
+     */
+    public static int getDeferredLastTick() {
+        return deferredLastTick;
+    }
+
+    /**
+     * @return The total number of times a job was deferred to a later tick.
+     */
+    public static long getTotalDeferred() {
+        return totalDeferred;
+    }
+
+    /**
+     * @return The total number of growth jobs run.
+     */
+    public static long getTotalProcessed() {
+        return totalProcessed;
+    }
+
+    // Runs jobs until the budget is spent, or the queue is empty.
+    private static void drain() {
+        long budgetNanos = (long) (TFCRConfig.treeGrowthBudgetMs.get() * 1_000_000);
+        long start = System.nanoTime();
+
+        boolean ranOne = false;
+        while (!jobs.isEmpty()) {
+            if (ranOne && System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+
+            TreeGrowthScheduler.Entry entry = jobs.poll();
+            if (entry.isCancelled()) {
+                continue;
+            }
+            entry.getTree().onGrowthDue(entry);
+            totalProcessed++;
+            ranOne = true;
+        }
+
+        deferredLastTick = jobs.size();
+        totalDeferred += deferredLastTick;
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase != TickEvent.Phase.END) {
+            return;
+        }
+        drain();
+    }
+
+    @SubscribeEvent
+    public static void onWorldUnload(WorldEvent.Unload event) {
+        IWorld world = event.getWorld();
+        jobs.removeIf(entry -> entry.isCancelled() || entry.getTree().getWorld() == world);
+    }
+}
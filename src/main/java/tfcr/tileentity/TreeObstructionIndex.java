@@ -0,0 +1,122 @@
+package tfcr.tileentity;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.IWorld;
+import net.minecraftforge.event.world.BlockEvent;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks trees that can't grow because something is in the way, by the chunks their
+ * next stage would cover.
+ *
+ * A blocked tree doesn't check again every growth interval. Instead, it registers the
+ * box its next stage would take up here, and is woken up (see
+ * {@link TreeTileEntity#onObstructionChanged()}) when a block inside that box changes.
+ * Block changes are picked up from neighbor notifications, and from our own batched
+ * tree writes, which don't notify neighbors.
+ */
+@Mod.EventBusSubscriber
+public class TreeObstructionIndex {
+
+    private static final Map<IWorld, Long2ObjectOpenHashMap<List<TreeTileEntity>>> worlds = new HashMap<>();
+
+    /**
+     * Registers a blocked tree.
+     * @param tree The tree.
+     * @param bounds The box the tree's next stage covers.
+     */
+    static void add(TreeTileEntity tree, MutableBoundingBox bounds) {
+        Long2ObjectOpenHashMap<List<TreeTileEntity>> byChunk = worlds.computeIfAbsent(tree.getWorld(), w -> new Long2ObjectOpenHashMap<>());
+        for (int chunkX = bounds.minX >> 4; chunkX <= bounds.maxX >> 4; chunkX++) {
+            for (int chunkZ = bounds.minZ >> 4; chunkZ <= bounds.maxZ >> 4; chunkZ++) {
+                byChunk.computeIfAbsent(ChunkPos.asLong(chunkX, chunkZ), k -> new ArrayList<>(2)).add(tree);
+            }
+        }
+    }
+
+    /**
+     * Unregisters a tree added with {@link #add}.
+     * @param bounds The same box the tree was added with.
+     */
+    static void remove(TreeTileEntity tree, MutableBoundingBox bounds) {
+        Long2ObjectOpenHashMap<List<TreeTileEntity>> byChunk = worlds.get(tree.getWorld());
+        if (byChunk == null) {
+            return;
+        }
+        for (int chunkX = bounds.minX >> 4; chunkX <= bounds.maxX >> 4; chunkX++) {
+            for (int chunkZ = bounds.minZ >> 4; chunkZ <= bounds.maxZ >> 4; chunkZ++) {
+                long key = ChunkPos.asLong(chunkX, chunkZ);
+                List<TreeTileEntity> trees = byChunk.get(key);
+                if (trees != null) {
+                    trees.remove(tree);
+                    if (trees.isEmpty()) {
+                        byChunk.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up every blocked tree whose next stage covers the given position.
+     */
+    public static void onBlockChanged(IWorld world, BlockPos pos) {
+        Long2ObjectOpenHashMap<List<TreeTileEntity>> byChunk = worlds.get(world);
+        if (byChunk == null || byChunk.isEmpty()) {
+            return;
+        }
+        List<TreeTileEntity> trees = byChunk.get(ChunkPos.asLong(pos.getX() >> 4, pos.getZ() >> 4));
+        if (trees == null) {
+            return;
+        }
+
+        // Waking a tree removes it from this list, so find them all first.
+        List<TreeTileEntity> woken = null;
+        for (TreeTileEntity tree : trees) {
+            if (tree.isObstructedBy(pos)) {
+                if (woken == null) {
+                    woken = new ArrayList<>(1);
+                }
+                woken.add(tree);
+            }
+        }
+        if (woken != null) {
+            for (TreeTileEntity tree : woken) {
+                tree.onObstructionChanged();
+            }
+        }
+    }
+
+    /**
+     * @return The number of blocked trees in the given world.
+     */
+    public static int getBlockedCount(IWorld world) {
+        Long2ObjectOpenHashMap<List<TreeTileEntity>> byChunk = worlds.get(world);
+        if (byChunk == null) {
+            return 0;
+        }
+        return (int) byChunk.values().stream().flatMap(List::stream).distinct().count();
+    }
+
+    @SubscribeEvent
+    public static void onNeighborNotify(BlockEvent.NeighborNotifyEvent event) {
+        if (!event.getWorld().isRemote()) {
+            onBlockChanged(event.getWorld(), event.getPos());
+        }
+    }
+
+    @SubscribeEvent
+    public static void onWorldUnload(WorldEvent.Unload event) {
+        worlds.remove(event.getWorld());
+    }
+}
@@ -1,24 +1,15 @@
 package tfcr.tileentity;
 
-import com.mojang.datafixers.Dynamic;
-import com.mojang.datafixers.types.DynamicOps;
-import net.minecraft.block.AirBlock;
 import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.block.Blocks;
 import net.minecraft.nbt.CompoundNBT;
-import net.minecraft.network.NetworkManager;
-import net.minecraft.network.play.server.SUpdateTileEntityPacket;
-import net.minecraft.tileentity.ITickableTileEntity;
 import net.minecraft.tileentity.TileEntity;
 import net.minecraft.tileentity.TileEntityType;
 import net.minecraft.util.math.BlockPos;
-import net.minecraft.util.math.Vec3i;
-import net.minecraft.world.IWorldReader;
-import net.minecraft.world.gen.feature.template.IStructureProcessorType;
-import net.minecraft.world.gen.feature.template.PlacementSettings;
-import net.minecraft.world.gen.feature.template.StructureProcessor;
-import net.minecraft.world.gen.feature.template.Template;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.IBlockReader;
+import net.minecraft.world.IWorld;
 import net.minecraftforge.registries.IForgeRegistry;
 import tfcr.TFCR;
 import tfcr.blocks.BranchBlock;
@@ -26,17 +17,24 @@ import tfcr.blocks.LeavesBlock;
 import tfcr.blocks.LogBlock;
 import tfcr.blocks.SaplingBlock;
 import tfcr.blocks.TallSaplingBlock;
+import tfcr.data.TFCRTime;
 import tfcr.data.WoodType;
-import tfcr.utils.TemplateHelper;
+import tfcr.network.TreeSyncQueue;
+import tfcr.utils.BatchedTreeBlockWriter;
+import tfcr.utils.ChunkSectionReader;
+import tfcr.utils.CompiledTreeTemplate;
+import tfcr.utils.ITreeBlockWriter;
+import tfcr.utils.TreeFootprintIndex;
+import tfcr.utils.TreeGrowthDelta;
+import tfcr.utils.TreeMetrics;
+import tfcr.utils.TreeTemplateCache;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-public class TreeTileEntity extends TileEntity implements ITickableTileEntity {
+public class TreeTileEntity extends TileEntity {
 
     /**
      * The type of wood this TreeTileEntity corresponds to.
@@ -44,10 +42,32 @@ public class TreeTileEntity extends TileEntity implements ITickableTileEntity {
     private WoodType woodType;
 
     /**
-     * How old this tree is, in ticks. We increment the structure-changing age
-     * only once every N ticks. TODO: explain what N is, right now it's 100 for testing
+     * How many ticks a tree waits between growth stages. This is one Minecraft day.
      */
-    private int count = 0;
+    public static final int GROWTH_INTERVAL = 20 * 60 * 20;
+
+    // Marks lastGrowthTime as not set yet.
+    private static final long UNSET = -1;
+
+    /**
+     * The time (see {@link TFCRTime#getRawTime()}) at which this tree last grew, or
+     * started growing if it never has. Growth is derived from this, so a tree that
+     * was unloaded for a while catches up on every stage it missed when it is loaded again.
+     */
+    private long lastGrowthTime = UNSET;
+
+    /**
+     * Ticks of progress towards the next growth a tree starts with, before it has a
+     * lastGrowthTime: either the "count" of a tree saved before lastGrowthTime existed,
+     * or the phase given to a tree placed by worldgen (see {@link #getWorldgenPhase}).
+     * Turned into a lastGrowthTime in {@link #onLoad()}.
+     */
+    private int initialProgress = 0;
+
+    /**
+     * Our pending growth in the {@link TreeGrowthScheduler}, or null if we aren't scheduled.
+     */
+    private TreeGrowthScheduler.Entry growthEntry;
 
     /**
      * How old this tree is. Used to determine what structure it will use.
@@ -57,13 +77,43 @@ public class TreeTileEntity extends TileEntity implements ITickableTileEntity {
     /**
      * A flag to determine if this tree is done growing or not. True if we have hit
      * the age limit for this tree type/variation. If true, this TileEntity will
-     * stop ticking.
+     * no longer be scheduled to grow.
      */
     private boolean doneGrowing = false;
 
     /**
-     * The variant determines which specific tree model we use at each growth stage.
-     * It is randomly chosen on the first tick of the sapling being placed down.
+     * Set once the {@link TreeFeller} has removed this tree, so {@link #remove()}
+     * doesn't clean up (and give up leaf ownership) a second time. Not saved.
+     */
+    private boolean felled = false;
+
+    // Whether we're counted in TreeMetrics' live trees, so we're only ever counted once.
+    private boolean counted = false;
+
+    // Blocked trees check again after GROWTH_INTERVAL << min(times blocked, MAX_BACKOFF_SHIFT) ticks.
+    private static final int MAX_BACKOFF_SHIFT = 3;
+    // How long a blocked tree waits after something in its way changes, so a burst of changes
+    // only causes one check.
+    private static final int WAKE_DELAY = 20;
+
+    /**
+     * While we're blocked from growing, the box our next stage would cover. Registered in
+     * the {@link TreeObstructionIndex}, so we hear about changes inside it. Null otherwise.
+     */
+    private MutableBoundingBox blockedBounds;
+
+    // The age we last checked for obstructions, and whether we were obstructed. Not saved,
+    // and cleared whenever a block in the way changes.
+    private int checkedAge = -1;
+    private boolean obstructed = false;
+
+    // How many times in a row we've been blocked.
+    private int blockedCount = 0;
+
+    /**
+     * The variant determines how the tree's templates are rotated and mirrored; see
+     * {@link CompiledTreeTemplate#transform(int)}. It is randomly chosen when the sapling
+     * is first loaded into the world, or by worldgen.
      */
     private int variant = -1;
 
@@ -110,107 +160,437 @@ public class TreeTileEntity extends TileEntity implements ITickableTileEntity {
     @Override
     public void remove() {
         super.remove();
+        cancelGrowth();
+        clearBlocked();
 
         // Only delete on server side
         if (world.isRemote) {
             return;
         }
 
+        TreeFootprintIndex.get(world).remove(pos);
+        uncount();
+
         // Get the Template for this current stage
         if (age > 0) {
-            Template template = TemplateHelper.getTemplate(world, TemplateHelper.getTreeTemplateLocation(woodType, age));
+            CompiledTreeTemplate template = TreeTemplateCache.get(world, woodType, age, variant);
             if (template == null) {
 //                System.out.println("Failed to remove additional blocks- template " + TemplateHelper.getTreeTemplateLocation(woodType, age) + " could not be found.");
                 return;
             }
 
-            cleanupTree(template);
+            if (!felled) {
+                BatchedTreeBlockWriter writer = new BatchedTreeBlockWriter(world);
+                long start = System.nanoTime();
+                cleanupTree(writer, template);
+                writer.flush();
+                TreeMetrics.CLEANUP_TIME.record(System.nanoTime() - start);
+            }
+
+            // Leaves that weren't in our template are decayed later, in one pass.
+            LeafDecaySweep.schedule(world, template.getBounds(pos), woodType);
         }
 
     }
 
+    /**
+     * Called when this TileEntity is added to a loaded world, either because it was
+     * just placed or because its chunk was loaded. Registers this tree with the
+     * growth scheduler, so it can grow without ticking.
+     */
     @Override
-    public void tick() {
-//        return;
+    public void onLoad() {
+        super.onLoad();
 
-        if (variant == -1 && hasWorld() && !world.isRemote) {
-            variant = world.getRandom().nextInt(2);
+        if (world.isRemote) {
+            return;
+        }
+
+        if (!counted) {
+            TreeMetrics.recordTreeLoaded(world);
+            counted = true;
+        }
+
+        if (variant == -1) {
+            variant = world.getRandom().nextInt(CompiledTreeTemplate.VARIANTS);
 //            System.out.println("Initializing variant to: " + variant);
+            TreeSyncQueue.markDirty(this);
         }
 
+        updateFootprint();
+
         if (doneGrowing) {
             return;
         }
 
-        // TODO call markDirty() somewhat often so tree progress gets properly saved
-        count++;
-        if (count % (20 * 60 * 20) == 0) {
-            if (!world.isRemote) {
+        if (lastGrowthTime == UNSET) {
+            lastGrowthTime = getTime() - initialProgress;
+            initialProgress = 0;
+        }
+
+        // If one or more stages passed while we were unloaded, this is due right away,
+        // and onGrowthDue jumps straight to the age we should be at now.
+        scheduleGrowth(Math.max(world.getGameTime() + 1, lastGrowthTime + GROWTH_INTERVAL));
+    }
 
-//                System.out.println("Tile entity tree tick. Age = " + age);
+    /**
+     * Called when the chunk containing this TileEntity is unloaded. Our progress is
+     * kept in lastGrowthTime, and we reschedule in {@link #onLoad()}.
+     */
+    @Override
+    public void onChunkUnloaded() {
+        super.onChunkUnloaded();
+        cancelGrowth();
+        clearBlocked();
+        if (!world.isRemote) {
+            TreeFootprintIndex.get(world).remove(pos);
+            uncount();
+        }
+    }
 
-                // TODO Check if we can grow up first.
+    private void uncount() {
+        if (counted) {
+            TreeMetrics.recordTreeUnloaded(world);
+            counted = false;
+        }
+    }
 
-                // Remove old template
-                if (age > 0 && age < SaplingBlock.getMaxAge()) {
-                    Template template = TemplateHelper.getTemplate(world, TemplateHelper.getTreeTemplateLocation(woodType, age));
-                    if (template != null) {
-//                        System.out.println("Removing template with age: " + age);
-                        cleanupTree(template);
-                    }
-                }
+    // Records the space our current template takes up in the footprint index.
+    private void updateFootprint() {
+        CompiledTreeTemplate template = TreeTemplateCache.get(world, woodType, age, variant);
+        if (template == null) {
+            TreeFootprintIndex.get(world).remove(pos);
+        } else {
+            TreeFootprintIndex.get(world).put(pos, template.getBounds(pos));
+        }
+    }
 
-                // Increase age
-                age++;
-                // Ensure age is within range. If at max, stop growing and ticking.
-                if (age >= SaplingBlock.getMaxAge()) {
-//                    System.out.println("Done growing now");
-                    age = SaplingBlock.getMaxAge();
-                    doneGrowing = true;
+    /**
+     * Called by the {@link TreeFeller} once it has removed this tree's blocks.
+     */
+    void markFelled() {
+        felled = true;
+        cancelGrowth();
+    }
+
+    private void scheduleGrowth(long dueTime) {
+        TreeGrowthScheduler.cancel(growthEntry);
+        growthEntry = TreeGrowthScheduler.schedule(world, this, dueTime);
+    }
+
+    private void cancelGrowth() {
+        TreeGrowthScheduler.cancel(growthEntry);
+        growthEntry = null;
+    }
+
+    // TFCRTime is only updated once worlds start ticking, so while the server is
+    // starting up (and loading spawn chunks), fall back to the world's own clock.
+    private long getTime() {
+        return Math.max(TFCRTime.getRawTime(), world.getGameTime());
+    }
+
+    /**
+     * Called by the {@link TreeGrowthWorkQueue} once this tree's growth interval has passed.
+     * @param entry The scheduler entry that fired. Ignored if it's no longer our current one.
+     */
+    void onGrowthDue(TreeGrowthScheduler.Entry entry) {
+        if (entry != growthEntry || isRemoved() || world == null || world.isRemote) {
+            return;
+        }
+        growthEntry = null;
+
+        // How many stages have passed since we last grew. This is more than one if we
+        // were unloaded for a while; we skip straight to the final age in that case.
+        long stages = (getTime() - lastGrowthTime) / GROWTH_INTERVAL;
+        if (stages > 0) {
+            int newAge = (int) Math.min(age + stages, SaplingBlock.getMaxAge());
+            if (!doneGrowing && newAge > age) {
+                if (checkedAge != newAge && !checkObstructed(newAge)) {
+                    // We can't tell what's in the way until the chunks we'd grow into are loaded.
+                    // That isn't an obstruction, so try again at the normal interval, without backing off.
+                    scheduleGrowth(world.getGameTime() + GROWTH_INTERVAL);
+                    return;
+                }
+                if (obstructed) {
+                    onBlocked(newAge);
+                    return;
                 }
+            }
+            clearBlocked();
 
-                // Otherwise, we grew. So spawn new template
-                // TODO this is a relatively slow method call- maybe find a way to schedule it?
-//                System.out.println("Growing template with age: " + age);
-                spawnTree();
+            lastGrowthTime += stages * GROWTH_INTERVAL;
+            grow((int) Math.min(stages, SaplingBlock.getMaxAge()));
+        }
 
-                // Mark this TileEntity as dirty, so it saves its metadata to disk
-                markDirty();
+        // Keep growing if we're still the tree's root. If spawnTree handed off to a new
+        // TileEntity, that one has already registered itself in onLoad.
+        if (!doneGrowing && !isRemoved() && world.getTileEntity(pos) == this) {
+            scheduleGrowth(Math.max(world.getGameTime() + 1, lastGrowthTime + GROWTH_INTERVAL));
+        }
+    }
+
+    // Checks whether something is in the way of growing to the given age, and remembers it
+    // until something in the way changes, or we've been blocked for a while; see onBlocked.
+    // Returns false, and remembers nothing, if a chunk we'd grow into isn't loaded.
+    private boolean checkObstructed(int newAge) {
+        TreeGrowthDelta delta = TreeTemplateCache.getDelta(world, woodType, age, newAge, variant);
+        if (delta == null) {
+            obstructed = false;
+        } else {
+            // Read straight from the chunks we'd grow into. If any of them aren't loaded, we
+            // can't tell what's there, so we wait for them instead of loading them.
+            ChunkSectionReader reader = new ChunkSectionReader(world, delta.getTo().getBounds(pos));
+            if (!reader.isComplete()) {
+                return false;
             }
+            obstructed = isObstructed(reader, pos, delta);
+        }
+        checkedAge = newAge;
+        return true;
+    }
+
+    // Waits for the way to clear: until a block in the way changes, or an exponentially
+    // growing back-off runs out, whichever is first.
+    private void onBlocked(int newAge) {
+        // Time spent blocked doesn't count towards growth; we grow one stage once we're clear.
+        lastGrowthTime = Math.max(lastGrowthTime, getTime() - GROWTH_INTERVAL);
+        markDirty();
+
+        if (blockedBounds != null) {
+            TreeObstructionIndex.remove(this, blockedBounds);
+        }
+        CompiledTreeTemplate next = TreeTemplateCache.get(world, woodType, newAge, variant);
+        blockedBounds = next == null ? null : next.getBounds(pos);
+        if (blockedBounds != null) {
+            TreeObstructionIndex.add(this, blockedBounds);
+        }
+
+        // Changes we don't hear about (e.g. a chunk generating next to us) are caught by
+        // checking again for real once we're at the longest back-off.
+        if (blockedCount >= MAX_BACKOFF_SHIFT) {
+            checkedAge = -1;
         }
+        long backoff = (long) GROWTH_INTERVAL << Math.min(blockedCount, MAX_BACKOFF_SHIFT);
+        blockedCount++;
+        scheduleGrowth(world.getGameTime() + backoff);
     }
 
-    private void spawnTree() {
+    private void clearBlocked() {
+        if (blockedBounds != null) {
+            TreeObstructionIndex.remove(this, blockedBounds);
+            blockedBounds = null;
+        }
+        blockedCount = 0;
+        checkedAge = -1;
+    }
+
+    /**
+     * @return Whether we're blocked from growing, and the given position is in the way.
+     */
+    boolean isObstructedBy(BlockPos pos) {
+        return blockedBounds != null && blockedBounds.isVecInside(pos);
+    }
+
+    /**
+     * Called by the {@link TreeObstructionIndex} when a block that may be in our way changes.
+     * Checks again shortly, instead of waiting out the back-off.
+     */
+    void onObstructionChanged() {
+        checkedAge = -1;
+        if (blockedBounds != null) {
+            TreeObstructionIndex.remove(this, blockedBounds);
+            blockedBounds = null;
+        }
+        if (!isRemoved() && growthEntry != null) {
+            long wakeTime = world.getGameTime() + WAKE_DELAY;
+            if (growthEntry.getDueTime() > wakeTime) {
+                scheduleGrowth(wakeTime);
+            }
+        }
+    }
+
+    /**
+     * Checks whether anything is in the way of growing a tree by the given delta.
+     *
+     * Only the positions where the delta places new wood are checked; everything else the
+     * tree already occupies, and leaves simply don't grow where something else is. Wood can
+     * grow into anything replaceable (air, grass, water...) and into leaves.
+     *
+     * @param world The world the tree is in.
+     * @param root The world position of the tree's trunk.
+     * @param delta The difference between the tree's current and next template.
+     * @return True if something is in the way.
+     */
+    public static boolean isObstructed(IBlockReader world, BlockPos root, TreeGrowthDelta delta) {
+        CompiledTreeTemplate from = delta.getFrom();
+        CompiledTreeTemplate to = delta.getTo();
+        BlockPos.MutableBlockPos worldPos = new BlockPos.MutableBlockPos();
+
+        for (int i = 0; i < delta.getAddedCount(); i++) {
+            int index = delta.getAdded(i);
+            if (!isWood(to.getKind(index))) {
+                continue;
+            }
+            worldPos.setPos(root.getX() + to.getX(index), root.getY() + to.getY(index), root.getZ() + to.getZ(index));
+            if (!canGrowInto(world.getBlockState(worldPos))) {
+                return true;
+            }
+        }
+
+        for (int i = 0; i < delta.getChangedCount(); i++) {
+            int index = delta.getChangedTo(i);
+            if (!isWood(to.getKind(index))) {
+                continue;
+            }
+            worldPos.setPos(root.getX() + to.getX(index), root.getY() + to.getY(index), root.getZ() + to.getZ(index));
+            BlockState existing = world.getBlockState(worldPos);
+            // Our own block from the current stage is fine to replace.
+            if (existing.getBlock() != from.getState(delta.getChangedFrom(i)).getBlock() && !canGrowInto(existing)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWood(byte kind) {
+        return kind == CompiledTreeTemplate.BRANCH || kind == CompiledTreeTemplate.LOG;
+    }
+
+    private static boolean canGrowInto(BlockState state) {
+        return state.getMaterial().isReplaceable() || state.getBlock() instanceof LeavesBlock;
+    }
+
+    /**
+     * Grows this tree by the given number of stages, in a single step.
+     */
+    private void grow(int stages) {
+        if (doneGrowing) {
+            return;
+        }
+
+//        System.out.println("Tile entity tree tick. Age = " + age);
+
+        // Whether anything is in the way was already checked, in onGrowthDue.
+
+        long start = System.nanoTime();
+        int newAge = Math.min(age + stages, SaplingBlock.getMaxAge());
+
+        // All edits are buffered, and written in one go once we're done.
+        BatchedTreeBlockWriter writer = new BatchedTreeBlockWriter(world);
+
+        // If both ages have templates, only touch the blocks that differ between them.
+        TreeGrowthDelta delta = TreeTemplateCache.getDelta(world, woodType, age, newAge, variant);
+
+        // Otherwise, remove the old template in full.
+        if (delta == null && age > 0) {
+            CompiledTreeTemplate template = TreeTemplateCache.get(world, woodType, age, variant);
+            if (template != null) {
+//                System.out.println("Removing template with age: " + age);
+                long cleanupStart = System.nanoTime();
+                cleanupTree(writer, template);
+                TreeMetrics.CLEANUP_TIME.record(System.nanoTime() - cleanupStart);
+            }
+        }
+
+        // Increase age
+        age = newAge;
+        // Ensure age is within range. If at max, stop growing.
+        if (age >= SaplingBlock.getMaxAge()) {
+//            System.out.println("Done growing now");
+            doneGrowing = true;
+        }
+
+        // Otherwise, we grew. So spawn new template
+        // TODO this is a relatively slow method call- maybe find a way to schedule it?
+//        System.out.println("Growing template with age: " + age);
+        long spawnStart = System.nanoTime();
+        if (delta != null) {
+            applyDelta(writer, pos, delta, woodType);
+        } else {
+            spawnTree(writer);
+        }
+        writer.flush();
+        TreeMetrics.SPAWN_TIME.record(System.nanoTime() - spawnStart);
+        updateRoot();
+
+        // Mark this TileEntity as dirty, so it saves its metadata to disk
+        markDirty();
+
+        TreeMetrics.recordGrowth(System.nanoTime() - start, writer.getPlacedCount(), writer.getRemovedCount());
+    }
+
+    /**
+     * Grows this tree from one template to another, by only removing, placing or
+     * replacing the blocks that differ between them. Blocks that are the same in both
+     * are left untouched, which means shared leaves keep their owners as-is, unless
+     * they've gone missing (e.g. harvested by a player); those are placed again.
+     *
+     * @param writer The world the tree is in.
+     * @param root The world position of the tree's trunk.
+     * @param delta The difference between the tree's current and next template.
+     * @param woodType The wood type of the tree.
+     */
+    public static void applyDelta(ITreeBlockWriter writer, BlockPos root, TreeGrowthDelta delta, WoodType woodType) {
+        CompiledTreeTemplate from = delta.getFrom();
+        CompiledTreeTemplate to = delta.getTo();
+        BlockPos.MutableBlockPos worldPos = new BlockPos.MutableBlockPos();
+
+        for (int i = 0; i < delta.getRemovedCount(); i++) {
+            int index = delta.getRemoved(i);
+            worldPos.setPos(root.getX() + from.getX(index), root.getY() + from.getY(index), root.getZ() + from.getZ(index));
+            removeTreeBlock(writer, worldPos, from.getState(index));
+        }
+
+        for (int i = 0; i < delta.getChangedCount(); i++) {
+            int fromIndex = delta.getChangedFrom(i);
+            int toIndex = delta.getChangedTo(i);
+            worldPos.setPos(root.getX() + to.getX(toIndex), root.getY() + to.getY(toIndex), root.getZ() + to.getZ(toIndex));
+            // Leaves need to release their share of the block, and can't be placed over
+            // branches, so clear the old block first. Branches replacing branches are
+            // placed directly; that also keeps the root's TileEntity alive.
+            byte fromKind = from.getKind(fromIndex);
+            byte toKind = to.getKind(toIndex);
+            if (fromKind == CompiledTreeTemplate.LEAVES || (fromKind != CompiledTreeTemplate.OTHER && toKind == CompiledTreeTemplate.LEAVES)) {
+                removeTreeBlock(writer, worldPos, from.getState(fromIndex));
+            }
+            placeTreeBlock(writer, worldPos, to.getState(toIndex), woodType);
+        }
+
+        for (int i = 0; i < delta.getAddedCount(); i++) {
+            int index = delta.getAdded(i);
+            worldPos.setPos(root.getX() + to.getX(index), root.getY() + to.getY(index), root.getZ() + to.getZ(index));
+            placeTreeBlock(writer, worldPos, to.getState(index), woodType);
+        }
+
+        for (int i = 0; i < delta.getUnchangedCount(); i++) {
+            int index = delta.getUnchanged(i);
+            worldPos.setPos(root.getX() + to.getX(index), root.getY() + to.getY(index), root.getZ() + to.getZ(index));
+            if (writer.getBlockState(worldPos).getBlock() != to.getState(index).getBlock()) {
+                placeTreeBlock(writer, worldPos, to.getState(index), woodType);
+            }
+        }
+    }
+
+    private void spawnTree(ITreeBlockWriter writer) {
 //        System.out.println("Trying to spawn structure at pos: " + pos);
-        // TODO try to cleanup old structure before spawning new one
         // TODO ensure that we can place the new structure down before adding it
 
-        // Access the Template for the tree's structure
-        Template template = TemplateHelper.getTemplate(world, TemplateHelper.getTreeTemplateLocation(woodType, age));
+        // Access the compiled template for the tree's structure
+        CompiledTreeTemplate template = TreeTemplateCache.get(world, woodType, age, variant);
         if (template == null) {
 //            System.out.println("Failed to find structure: " + TemplateHelper.getTreeTemplateLocation(woodType, age));
             return;
         }
-//        Map<BlockPos, BlockState> map = TemplateHelper.getBlockMap(template);
-
-
-        // Rotation center should be the trunk of the tree.
-        BlockPos size = template.getSize();
-        BlockPos center = new BlockPos(size.getX() / 2, 0, size.getZ() / 2);
 
-//        for (Map.Entry<BlockPos, BlockState> entry : map.entrySet()) {
-//            world.setBlockState(entry.getKey().add(pos).subtract(center).add(0, center.getY(), 0), entry.getValue(), 2);
-//        }
-
-        // Add the structure to the world.
-        // TODO maybe make variant determine a random rotation/mirroring.
-        // TODO instead of just adding structure, modify existing leaf blocks!!
-        PlacementSettings settings = new PlacementSettings().setCenterOffset(center);
-        settings.addProcessor(new TemplateProcessorTrees(this.woodType));
-        template.addBlocksToWorld(world, pos.add(-center.getX(), 0, -center.getZ()), settings);
-//        template.addBlocksToWorld(world, pos.add(-center.getX(), 0, -center.getZ()), settings);
-//        System.out.println("Successfully added blocks.");
+        // Add the structure to the world, centered on the trunk of the tree.
+        placeTree(writer, pos, template, woodType);
+    }
 
+    /**
+     * Called after the tree's structure is placed. Makes sure the trunk is a root
+     * block, and hands off our state to the TileEntity there if it was recreated.
+     */
+    private void updateRoot() {
         // Validate the tree after it is added into the world, by making sure
         // there is a TreeTileEntity after the structure blocks are placed down.
         BlockState newRoot = world.getBlockState(pos);
@@ -246,142 +626,221 @@ public class TreeTileEntity extends TileEntity implements ITickableTileEntity {
         // TODO update all other values.
         treeTileEntity.age = this.age;
         treeTileEntity.variant = this.variant;
-        treeTileEntity.count = 0;
+        treeTileEntity.lastGrowthTime = this.lastGrowthTime;
+        treeTileEntity.updateFootprint();
+        TreeSyncQueue.markDirty(treeTileEntity);
+        if (treeTileEntity != this && doneGrowing) {
+            treeTileEntity.doneGrowing = true;
+            treeTileEntity.cancelGrowth();
+        }
 //        System.out.println("Updated base of tree to have TileEntity.");
     }
 
-    private void cleanupTree(Template template) {
+    private void cleanupTree(ITreeBlockWriter writer, CompiledTreeTemplate template) {
         if (template == null) {
 //            System.out.println("Failed to cleanup tree. Template was null!");
             return;
         }
 
-        // Get a map of BlockPos : IBlockState, so we can query the template.
-        // TODO I think Templates have exposed a similar method. Look at func_215387_a and others
-        Map<BlockPos, BlockState> posToStateMap = TemplateHelper.getBlockMap(template);
-
-        BlockPos size = template.getSize();
-        Vec3i centerOffset = new Vec3i(-size.getX() / 2, 0, -size.getZ() / 2);
-        for (int x = 0; x < size.getX(); x++) {
-            for (int z = 0; z < size.getZ(); z++) {
-                for (int y = 0; y < size.getY(); y++) {
-                    Vec3i offset = new Vec3i(x, y, z);
-
-                    // Get the blockstate for this position in the template. If it is not a branch or leaf,
-                    // then we don't care about it for removal purposes. This prevents deleting neighbors.
-                    // If we couldn't access the Template's internals, then this block never gets hit.
-                    if (posToStateMap != null) {
-                        BlockState templateState = posToStateMap.get(new BlockPos(offset));
-                        if (templateState == null || !(
-                                (templateState.getBlock() instanceof BranchBlock) ||
-                                        (templateState.getBlock() instanceof LogBlock) ||
-                                        (templateState.getBlock() instanceof LeavesBlock))) {
-                            continue;
-                        }
-                    }
-
-                    BlockPos localPos = new BlockPos(offset);
-                    BlockPos worldPos = pos.add(centerOffset).add(offset);
-
-                    BlockState localState = world.getBlockState(worldPos);
-                    Block localBlock = localState.getBlock();
-
-                    if (posToStateMap != null) {
-                        BlockState expectedState = posToStateMap.get(localPos);
-                        Block expectedBlock = expectedState.getBlock();
-
-//                        if (localBlock != expectedBlock) {
-////                            System.out.println("Mismatch in block types. Left: " + posToStateMap.get(new BlockPos(offset)) + " Right: " + localState + ". Ignoring.");
-//                            continue;
-//                        }
-
-                        // Okay, both branch blocks.. If any metadata differences, we've been overwritten, so we can't remove.
-                        if (localBlock instanceof BranchBlock && expectedBlock instanceof BranchBlock) {
-                            BranchBlock localBranch = (BranchBlock) localBlock;
-                            BranchBlock expectedBranch = (BranchBlock) expectedBlock;
-
-                            if (localBranch.woodType != expectedBranch.woodType) {
-                                continue;
-                            }
-
-                            if (localBranch.diameter != expectedBranch.diameter) {
-                                continue;
-                            }
-
-                            if (localBranch.leaflogged != expectedBranch.leaflogged) {
-                                continue;
-                            }
-
-                            world.removeBlock(worldPos, false);
-                        }
-
-                        if (localBlock instanceof LeavesBlock && expectedBlock instanceof LeavesBlock) {
-                            LeavesBlock localLeaf = (LeavesBlock) localBlock;
-                            LeavesBlock expectedLeaf = (LeavesBlock) expectedBlock;
-
-                            if (localLeaf.woodType != expectedLeaf.woodType) {
-                                continue;
-                            }
-
-                            int numTrees = localState.get(LeavesBlock.NUM_TREES);
-                            if (numTrees == 1) {
-//                                System.out.println("Cleanup found leaves. Removing.");
-                                // Leaves are only part of this tree, so remove
-                                world.removeBlock(worldPos, false);
-                            } else if (numTrees > 1) {
-//                                System.out.println("Cleanup found leaves. Decrementing to: " + (numTrees - 1));
-                                // Leaves are part of >1 tree, so decrement count
-                                // TODO setBlockState seems to occasionally make grow think there's nothing there- does it remove then add?
-                                world.setBlockState(worldPos, localState.with(LeavesBlock.NUM_TREES, numTrees - 1));
-                            }
-
-                        }
-                    }
-
-//                    if (posToStateMap != null && posToStateMap.get(new BlockPos(offset)) != localState) {
-//                        System.out.println("Left: " + posToStateMap.get(new BlockPos(offset)) + " Right: " + localState + ". Ignoring.");
-//                        continue;
-//                    }
-
-//                    if (localBlock instanceof BranchBlock || localBlock instanceof LogBlock) {
-//                        // TODO check wood type matches structure
-//                        WoodType woodType = localBlock instanceof BranchBlock ?
-//                                ((BranchBlock) localBlock).woodType :
-//                                ((LogBlock) localBlock).woodType;
-//                        // We don't want to modify other trees' branches!
-//                        if (woodType != this.woodType) {
-//                            continue;
-//                        }
-//
-//                        // Don't remove TileEntityTrees- that could break growing up mechanics.
-////                        if (world.getTileEntity(worldPos) != null && world.getTileEntity(worldPos) instanceof TreeTileEntity) {
-////                            continue;
-////                        }
-//
-//                        // Otherwise, just remove branches and logs
-//                        // TODO should "isMoving" be false?
-//                        world.removeBlock(worldPos, false);
-//                    } else if (localBlock instanceof LeavesBlock) {
-//                        WoodType woodType = ((LeavesBlock) localBlock).woodType;
-//                        // We don't want to modify other trees' leaves!
-//                        if (woodType != this.woodType) {
-//                            continue;
-//                        }
-//
-//                        int numTrees = localState.get(LeavesBlock.NUM_TREES);
-//                        if (numTrees == 1) {
-//                            System.out.println("Cleanup found leaves. Removing.");
-//                            // Leaves are only part of this tree, so remove
-//                            world.removeBlock(worldPos, false);
-//                        } else if (numTrees > 1) {
-//                            System.out.println("Cleanup found leaves. Decrementing to: " + (numTrees - 1));
-//                            // Leaves are part of >1 tree, so decrement count
-//                            world.setBlockState(worldPos, localState.with(LeavesBlock.NUM_TREES, numTrees - 1));
-//                        }
-//                    }
-                }
+        removeTree(writer, pos, template);
+    }
+
+    /**
+     * Removes a tree placed from the given template, leaving anything that isn't part of it.
+     *
+     * Only the template's branch, log and leaf entries are visited; empty space and other
+     * blocks in the template's bounding box are never looked at, so the cost scales with
+     * the size of the tree rather than its volume. No positions are allocated per block.
+     *
+     * @param writer The world the tree is in.
+     * @param root The world position of the tree's trunk.
+     * @param template The template the tree was placed from.
+     * @return The number of positions visited.
+     */
+    public static int removeTree(ITreeBlockWriter writer, BlockPos root, CompiledTreeTemplate template) {
+        BlockPos.MutableBlockPos worldPos = new BlockPos.MutableBlockPos();
+        int count = template.getWoodCount();
+        for (int i = 0; i < count; i++) {
+            int index = template.getWoodIndex(i);
+            worldPos.setPos(root.getX() + template.getX(index), root.getY() + template.getY(index), root.getZ() + template.getZ(index));
+            removeTreeBlock(writer, worldPos, template.getState(index));
+        }
+        return count;
+    }
+
+    /**
+     * Removes a single block of a tree, if it's still the block the tree placed there.
+     *
+     * Branches are only removed if they match exactly; if not, they've been overwritten
+     * and aren't ours anymore. Leaves shared with other trees only lose this tree as
+     * an owner, instead of being removed.
+     *
+     * @param writer The world the tree is in.
+     * @param worldPos The position to remove.
+     * @param expectedState The block the tree's template has at this position.
+     */
+    private static void removeTreeBlock(ITreeBlockWriter writer, BlockPos worldPos, BlockState expectedState) {
+        BlockState localState = writer.getBlockState(worldPos);
+        Block localBlock = localState.getBlock();
+        Block expectedBlock = expectedState.getBlock();
+
+        // Okay, both branch blocks.. If any metadata differences, we've been overwritten, so we can't remove.
+        if (localBlock instanceof BranchBlock && expectedBlock instanceof BranchBlock) {
+            BranchBlock localBranch = (BranchBlock) localBlock;
+            BranchBlock expectedBranch = (BranchBlock) expectedBlock;
+
+            if (localBranch.woodType != expectedBranch.woodType) {
+                return;
+            }
+
+            if (localBranch.diameter != expectedBranch.diameter) {
+                return;
+            }
+
+            if (localBranch.leaflogged != expectedBranch.leaflogged) {
+                return;
+            }
+
+            writer.removeBlock(worldPos);
+        }
+
+        if (localBlock instanceof LeavesBlock && expectedBlock instanceof LeavesBlock) {
+            LeavesBlock localLeaf = (LeavesBlock) localBlock;
+            LeavesBlock expectedLeaf = (LeavesBlock) expectedBlock;
+
+            if (localLeaf.woodType != expectedLeaf.woodType) {
+                return;
+            }
+
+            int numTrees = writer.getLeafOwners(worldPos);
+            if (numTrees == 1) {
+//                System.out.println("Cleanup found leaves. Removing.");
+                // Leaves are only part of this tree, so remove
+                writer.removeBlock(worldPos);
+            } else if (numTrees > 1) {
+//                System.out.println("Cleanup found leaves. Decrementing to: " + (numTrees - 1));
+                // Leaves are part of >1 tree, so decrement count. The block itself stays as-is.
+                writer.setLeafOwners(worldPos, numTrees - 1);
+            }
+        }
+    }
+
+    /**
+     * Places a compiled tree template into the world, with its trunk at the given root.
+     *
+     * Leaves need special handling so that trees can share a canopy: placing leaves onto
+     * leaves of the same wood type adds this tree as an owner instead of replacing them, and
+     * leaves never replace leaves of another wood type, or any branch, log or sapling.
+     * Branches are placed over anything.
+     *
+     * @param writer The world to place the tree in.
+     * @param root The world position of the tree's trunk.
+     * @param template The tree to place.
+     * @param woodType The wood type of the tree being placed.
+     */
+    public static void placeTree(ITreeBlockWriter writer, BlockPos root, CompiledTreeTemplate template, WoodType woodType) {
+        BlockPos.MutableBlockPos worldPos = new BlockPos.MutableBlockPos();
+        for (int i = 0; i < template.size(); i++) {
+            worldPos.setPos(root.getX() + template.getX(i), root.getY() + template.getY(i), root.getZ() + template.getZ(i));
+            placeTreeBlock(writer, worldPos, template.getState(i), woodType);
+        }
+    }
+
+    // Places a single block of a tree, following the leaf sharing rules of placeTree.
+    private static void placeTreeBlock(ITreeBlockWriter writer, BlockPos worldPos, BlockState state, WoodType woodType) {
+        BlockState currentBlockState = writer.getBlockState(worldPos);
+        BlockState placingBlockState = getPlacementState(currentBlockState, state, woodType);
+        if (placingBlockState == null) {
+            return;
+        }
+
+        if (placingBlockState.getBlock() instanceof LeavesBlock) {
+            // If there are leaves of the same type here already, we share them with their trees.
+            // Otherwise, the new leaves are ours alone.
+            boolean sharing = currentBlockState.getBlock() == placingBlockState.getBlock();
+            writer.setLeafOwners(worldPos, sharing ? writer.getLeafOwners(worldPos) + 1 : 1);
+        }
+
+        if (placingBlockState != currentBlockState) {
+            writer.setBlockState(worldPos, placingBlockState);
+        }
+    }
+
+    /**
+     * Decides what to place when growing a tree block into a position.
+     * @param currentBlockState The block currently in the world.
+     * @param placingBlockState The block the tree wants to place.
+     * @param woodType The wood type of the tree being placed.
+     * @return The state to place, or null if the position should be left alone.
+     */
+    @Nullable
+    private static BlockState getPlacementState(BlockState currentBlockState, BlockState placingBlockState, WoodType woodType) {
+        if ((currentBlockState.getBlock() instanceof LeavesBlock) && (placingBlockState.getBlock() instanceof LeavesBlock)) {
+            // If the woodtype is different, then we don't replace leaves
+            WoodType theirWoodType = ((LeavesBlock) currentBlockState.getBlock()).woodType;
+            if (woodType != theirWoodType) {
+                return null;
             }
+
+            // Else if the woodtype is the same, we share them; see placeTreeBlock.
+            return placingBlockState;
         }
+
+        if (placingBlockState.getBlock() instanceof LeavesBlock) {
+            // Don't grow into any sort of logs/branches
+            if (currentBlockState.getBlock() instanceof BranchBlock ||
+                    currentBlockState.getBlock() instanceof LogBlock ||
+                    currentBlockState.getBlock() instanceof SaplingBlock ||
+                    currentBlockState.getBlock() instanceof TallSaplingBlock) {
+                return null;
+            }
+//            System.out.println("Growing leaves into space containing: " + currentBlockState);
+        }
+
+        // Default- place whatever we were going to place.
+        return placingBlockState;
+    }
+
+    /**
+     * Sets up the TileEntity at the root of a tree placed by worldgen. TileEntities created
+     * by the root block don't know how old the tree they belong to is.
+     * @param world The world (or worldgen region) the tree was placed in.
+     * @param root The position of the tree's trunk.
+     * @param woodType The wood type of the tree.
+     * @param age The age of the tree that was placed.
+     * @param variant The variant of the template that was placed.
+     */
+    public static void initializeRoot(IWorld world, BlockPos root, WoodType woodType, int age, int variant) {
+        TileEntity tileEntity = world.getTileEntity(root);
+        if (!(tileEntity instanceof TreeTileEntity)) {
+            return;
+        }
+
+        TreeTileEntity tree = (TreeTileEntity) tileEntity;
+        tree.woodType = woodType;
+        tree.age = age;
+        tree.variant = variant;
+        tree.doneGrowing = age >= SaplingBlock.getMaxAge();
+        tree.initialProgress = getWorldgenPhase(world.getSeed(), root);
+    }
+
+    /**
+     * Picks how far into its first growth interval a tree placed by worldgen starts.
+     *
+     * Every tree generated in one session would otherwise start its growth interval when
+     * its chunk is first loaded, so a whole area of trees grows on the same tick. Giving
+     * each a phase spreads that out over the interval. The phase only depends on the
+     * world seed and position, so the same world generates the same phases.
+     *
+     * @return A phase in [0, GROWTH_INTERVAL).
+     */
+    public static int getWorldgenPhase(long seed, BlockPos root) {
+        long hash = seed ^ root.toLong() * 0x9E3779B97F4A7C15L;
+        // Finalizer from SplitMix64, so nearby positions get unrelated phases.
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        hash = hash ^ (hash >>> 31);
+        return (int) Math.floorMod(hash, (long) GROWTH_INTERVAL);
     }
 
     @Nonnull
@@ -391,9 +850,14 @@ public class TreeTileEntity extends TileEntity implements ITickableTileEntity {
             compound = super.write(compound);
             compound.putInt("woodTypeInt", woodType.ordinal());
             compound.putInt("age", age);
-            compound.putInt("count", count);
+            compound.putLong("lastGrowthTime", lastGrowthTime);
+            if (lastGrowthTime == UNSET) {
+                // Not loaded since worldgen, so our phase is still pending.
+                compound.putInt("count", initialProgress);
+            }
             compound.putBoolean("doneGrowing", doneGrowing);
             compound.putInt("variant", variant);
+            compound.putBoolean("transformVariant", true);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -406,91 +870,64 @@ public class TreeTileEntity extends TileEntity implements ITickableTileEntity {
         super.read(compound);
         this.woodType = WoodType.values()[compound.getInt("woodTypeInt")];
         this.age = compound.getInt("age");
-        this.count = compound.getInt("count");
+        if (compound.contains("lastGrowthTime")) {
+            this.lastGrowthTime = compound.getLong("lastGrowthTime");
+        } else {
+            this.lastGrowthTime = UNSET;
+        }
+        // The ticks since the last growth, if lastGrowthTime is unset: saved before
+        // lastGrowthTime existed, or by a worldgen tree that hasn't been loaded yet.
+        // Old saves never reset their count, so it can be far past one interval; it
+        // only ever counts towards the next stage.
+        this.initialProgress = Math.min(compound.getInt("count"), GROWTH_INTERVAL - 1);
         this.doneGrowing = compound.getBoolean("doneGrowing");
-        this.variant = compound.getInt("variant");
+        if (compound.getBoolean("transformVariant")) {
+            this.variant = compound.getInt("variant");
+        } else {
+            // Older trees rolled a variant, but were always placed unrotated.
+            this.variant = 0;
+        }
 //        System.out.println("Read type: " + age);
     }
 
+    /**
+     * The data sent to clients when they first receive this tree's chunk. Clients only
+     * need to know what the tree is; how it grows is up to the server.
+     */
+    @Nonnull
     @Override
-    public SUpdateTileEntityPacket getUpdatePacket() {
-//        System.out.println("getUpdatePacket");
-
-        CompoundNBT nbtTag = new CompoundNBT();
-        this.write(nbtTag);
-        return new SUpdateTileEntityPacket(this.pos, 1, nbtTag);
+    public CompoundNBT getUpdateTag() {
+        CompoundNBT compound = super.write(new CompoundNBT());
+        compound.putInt("woodTypeInt", woodType.ordinal());
+        compound.putInt("age", age);
+        compound.putInt("variant", variant);
+        return compound;
     }
 
     @Override
-    public void onDataPacket(NetworkManager net, SUpdateTileEntityPacket packet) {
-//        System.out.println("onDataPacket");
-        read(packet.getNbtCompound());
+    public void handleUpdateTag(CompoundNBT compound) {
+        super.read(compound);
+        this.woodType = WoodType.values()[compound.getInt("woodTypeInt")];
+        this.age = compound.getInt("age");
+        this.variant = compound.getInt("variant");
     }
 
-    public static class TemplateProcessorTrees extends StructureProcessor {
-
-        private WoodType woodType;
-
-        public TemplateProcessorTrees(WoodType woodType) {
-            this.woodType = woodType;
-        }
-
-        @Nullable
-        @Override
-        public Template.BlockInfo process(IWorldReader worldIn, BlockPos pos, Template.BlockInfo unsure, Template.BlockInfo blockInfoIn, PlacementSettings placementSettings) {
-            // We never override with air in the structure
-            if (blockInfoIn.state.getBlock() instanceof AirBlock) {
-                return null;
-            }
-
-            // If the world pos is a leaf block AND so is the block we are going to place,
-            // then we need to do additional processing.
-            BlockState currentBlockState = worldIn.getBlockState(pos.add(unsure.pos));
-            BlockState placingBlockState = blockInfoIn.state;
-
-            if ((currentBlockState.getBlock() instanceof LeavesBlock) && (placingBlockState.getBlock() instanceof LeavesBlock)) {
-                // If the woodtype is different, then we don't replace leaves
-                WoodType theirWoodType = ((LeavesBlock) currentBlockState.getBlock()).woodType;
-                if (this.woodType != theirWoodType) {
-                    return null;
-                }
-
-                // Else if the woodtype is the same, we increment the numTree count.
-                int numTrees = currentBlockState.get(LeavesBlock.NUM_TREES);
-//                System.out.println("Both are leaves! Existing numTrees: " + numTrees);
-                return new Template.BlockInfo(blockInfoIn.pos, placingBlockState.with(LeavesBlock.NUM_TREES, numTrees + 1), blockInfoIn.nbt);
-            }
-
-            // Ensure that we always place leaves with numTrees at least 1.
-            if (placingBlockState.getBlock() instanceof LeavesBlock) {
-                // Don't grow into any sort of logs/branches
-                if (currentBlockState.getBlock() instanceof BranchBlock ||
-                        currentBlockState.getBlock() instanceof LogBlock ||
-                        currentBlockState.getBlock() instanceof SaplingBlock ||
-                        currentBlockState.getBlock() instanceof TallSaplingBlock) {
-                    return null;
-                }
-//                System.out.println("Growing leaves into space containing: " + currentBlockState);
-
-                if (placingBlockState.get(LeavesBlock.NUM_TREES) == 0) {
-                    return new Template.BlockInfo(blockInfoIn.pos, placingBlockState.with(LeavesBlock.NUM_TREES, 1), blockInfoIn.nbt);
-                }
-            }
-
-            // Default- place whatever we were going to place.
-            return blockInfoIn;
-        }
+    // Later changes are sent through TreeSyncQueue, instead of an SUpdateTileEntityPacket
+    // with the full NBT every time the root block changes.
 
-        @Override
-        protected IStructureProcessorType getType() {
-            return IStructureProcessorType.RULE;
-        }
+    /**
+     * Called on the client when the server sends a {@link tfcr.network.TreeSyncMessage}.
+     */
+    public void applySync(int age, int variant) {
+        this.age = age;
+        this.variant = variant;
+    }
 
-        // TODO I'm not sure what this method does. I used the NopProcessor's code as a placeholder
-        @Override
-        protected <T> Dynamic<T> serialize0(DynamicOps<T> p_215193_1_) {
-            return new Dynamic<>(p_215193_1_, p_215193_1_.emptyMap());
-        }
+    public int getAge() {
+        return age;
     }
 
+    public int getVariant() {
+        return variant;
+    }
 }
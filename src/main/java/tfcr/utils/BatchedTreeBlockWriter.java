@@ -0,0 +1,165 @@
+package tfcr.utils;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import tfcr.data.LeafOwnership;
+import tfcr.tileentity.TreeObstructionIndex;
+
+/**
+ * An ITreeBlockWriter that buffers a whole tree's worth of edits, then writes them
+ * in one pass.
+ *
+ * Writing a tree one setBlockState at a time makes every block update the shape of
+ * its six neighbors, which in turn update theirs, so a single growth step causes
+ * hundreds of redundant updatePostPlacement calls on branches and leaves. Instead,
+ * on {@link #flush()} we:
+ *
+ *  1. Write every edit, grouped by chunk section, with neighbor reactions suppressed.
+ *  2. Run one shape update pass over the edited blocks and their neighbors. This is
+ *     what recomputes BranchBlock's EXTEND_* properties, breaks the top half of a
+ *     replaced tall sapling, and so on; each position is updated at most once.
+ *  3. Notify the blocks just outside the batch that their neighbor changed, so redstone,
+ *     falling blocks and the like react to the tree. Blocks inside the batch aren't
+ *     notified about each other; tree blocks don't react to neighbor changes anyway.
+ *
+ * Light updates and client sync are already batched by the server: light checks are
+ * queued to the light engine, and block changes are collected per chunk and sent as a
+ * single multi-block change packet at the end of the tick. Grouping our writes by
+ * section keeps those batches (and the chunk lookups) local.
+ */
+public class BatchedTreeBlockWriter implements ITreeBlockWriter {
+
+    // Send to clients, but don't update neighbor shapes; we do that ourselves in flush().
+    private static final int FLAGS = 2 | 16;
+
+    private final World world;
+
+    // Pending edits, by BlockPos.toLong(), in the order they were made.
+    private final Long2ObjectLinkedOpenHashMap<BlockState> pending = new Long2ObjectLinkedOpenHashMap<>();
+
+    // Total edits made through this writer, for TreeMetrics.
+    private int placedCount = 0;
+    private int removedCount = 0;
+
+    public BatchedTreeBlockWriter(World world) {
+        this.world = world;
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        BlockState state = pending.get(pos.toLong());
+        return state != null ? state : world.getBlockState(pos);
+    }
+
+    @Override
+    public void setBlockState(BlockPos pos, BlockState state) {
+        pending.put(pos.toLong(), state);
+        placedCount++;
+    }
+
+    @Override
+    public void removeBlock(BlockPos pos) {
+        // Same as World#removeBlock: leave any fluid behind.
+        pending.put(pos.toLong(), world.getFluidState(pos).getBlockState());
+        removedCount++;
+    }
+
+    @Override
+    public int getLeafOwners(BlockPos pos) {
+        return LeafOwnership.getOwners(world, pos);
+    }
+
+    @Override
+    public void setLeafOwners(BlockPos pos, int owners) {
+        LeafOwnership.setOwners(world, pos, owners);
+    }
+
+    /**
+     * @return The number of blocks placed through this writer so far, including flushed ones.
+     */
+    public int getPlacedCount() {
+        return placedCount;
+    }
+
+    /**
+     * @return The number of blocks removed through this writer so far, including flushed ones.
+     */
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    /**
+     * @return The number of edits waiting to be written.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Sort by chunk section, so that consecutive writes hit the same chunk.
+        long[] positions = pending.keySet().toLongArray();
+        LongArrays.quickSort(positions, (a, b) -> Long.compare(sectionKey(a), sectionKey(b)));
+
+        LongOpenHashSet edited = new LongOpenHashSet(positions);
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        LongLinkedOpenHashSet toUpdate = new LongLinkedOpenHashSet(positions.length * 3);
+        for (long packed : positions) {
+            pos.setPos(BlockPos.unpackX(packed), BlockPos.unpackY(packed), BlockPos.unpackZ(packed));
+            world.setBlockState(pos, pending.get(packed), FLAGS);
+            // We don't notify neighbors, so blocked trees wouldn't hear about this otherwise.
+            TreeObstructionIndex.onBlockChanged(world, pos);
+
+            toUpdate.add(packed);
+            for (Direction direction : Direction.values()) {
+                toUpdate.add(BlockPos.offset(packed, direction));
+            }
+        }
+        pending.clear();
+
+        // One shape update per affected position.
+        for (long packed : toUpdate) {
+            pos.setPos(BlockPos.unpackX(packed), BlockPos.unpackY(packed), BlockPos.unpackZ(packed));
+            BlockState state = world.getBlockState(pos);
+            BlockState updated = Block.getValidBlockForPosition(state, world, pos);
+            if (updated != state) {
+                Block.replaceBlock(state, updated, world, pos, FLAGS);
+            }
+        }
+
+        // Notify the blocks outside the batch, once for each face they share with it.
+        BlockPos.MutableBlockPos neighborPos = new BlockPos.MutableBlockPos();
+        for (long packed : positions) {
+            pos.setPos(BlockPos.unpackX(packed), BlockPos.unpackY(packed), BlockPos.unpackZ(packed));
+            Block block = null;
+            for (Direction direction : Direction.values()) {
+                long neighbor = BlockPos.offset(packed, direction);
+                if (edited.contains(neighbor)) {
+                    continue;
+                }
+                if (block == null) {
+                    block = world.getBlockState(pos).getBlock();
+                }
+                neighborPos.setPos(BlockPos.unpackX(neighbor), BlockPos.unpackY(neighbor), BlockPos.unpackZ(neighbor));
+                world.neighborChanged(neighborPos, block, pos);
+            }
+        }
+    }
+
+    private static long sectionKey(long packed) {
+        return ((long) (BlockPos.unpackX(packed) >> 4) & 0x3FFFFF) << 42
+                | ((long) (BlockPos.unpackZ(packed) >> 4) & 0x3FFFFF) << 20
+                | ((BlockPos.unpackY(packed) >> 4) & 0xFFFFF);
+    }
+}
@@ -0,0 +1,137 @@
+package tfcr.utils;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.fluid.IFluidState;
+import net.minecraft.tileentity.TileEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.IBlockReader;
+import net.minecraft.world.IWorldReader;
+import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.ChunkStatus;
+import net.minecraft.world.chunk.IChunk;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads blocks straight from the chunk sections covering an area, instead of going
+ * through World.getBlockState (and allocating a BlockPos) for every position.
+ *
+ * The chunks are looked up once, when the reader is made, and only if they're already
+ * loaded; a reader never loads or generates a chunk. Positions in chunks that weren't
+ * loaded, or outside of the area, read as void air. Check {@link #isComplete()} (or
+ * {@link #isLoaded(int, int)}) before trusting what's read there.
+ */
+public class ChunkSectionReader implements IBlockReader {
+
+    /**
+     * Where a reader gets its chunks from.
+     */
+    public interface ChunkSource {
+        /**
+         * @return The chunk at the given chunk coordinates, or null if it isn't loaded.
+         */
+        @Nullable
+        IChunk getChunk(int chunkX, int chunkZ);
+    }
+
+    private static final BlockState AIR = Blocks.AIR.getDefaultState();
+    private static final BlockState VOID_AIR = Blocks.VOID_AIR.getDefaultState();
+
+    private final IChunk[] chunks;
+    private final int minChunkX, minChunkZ, width, depth;
+    private final boolean complete;
+
+    /**
+     * Makes a reader for the loaded chunks of a world covering the given area.
+     */
+    public ChunkSectionReader(IWorldReader world, MutableBoundingBox bounds) {
+        this(loadedChunks(world), bounds.minX, bounds.minZ, bounds.maxX, bounds.maxZ);
+    }
+
+    /**
+     * Makes a reader for the chunks covering the area from (minX, minZ) to (maxX, maxZ), inclusive.
+     */
+    public ChunkSectionReader(ChunkSource source, int minX, int minZ, int maxX, int maxZ) {
+        minChunkX = minX >> 4;
+        minChunkZ = minZ >> 4;
+        width = (maxX >> 4) - minChunkX + 1;
+        depth = (maxZ >> 4) - minChunkZ + 1;
+
+        chunks = new IChunk[width * depth];
+        boolean allLoaded = true;
+        for (int z = 0; z < depth; z++) {
+            for (int x = 0; x < width; x++) {
+                IChunk chunk = source.getChunk(minChunkX + x, minChunkZ + z);
+                chunks[z * width + x] = chunk;
+                allLoaded &= chunk != null;
+            }
+        }
+        complete = allLoaded;
+    }
+
+    /**
+     * @return A source for the fully generated chunks of a world that are already loaded.
+     */
+    public static ChunkSource loadedChunks(IWorldReader world) {
+        return (chunkX, chunkZ) -> world.getChunk(chunkX, chunkZ, ChunkStatus.FULL, false);
+    }
+
+    /**
+     * @return Whether every chunk covering the area was loaded.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return Whether the chunk containing the given position is in the area, and was loaded.
+     */
+    public boolean isLoaded(int x, int z) {
+        return getChunk(x, z) != null;
+    }
+
+    @Nullable
+    private IChunk getChunk(int x, int z) {
+        int chunkX = (x >> 4) - minChunkX;
+        int chunkZ = (z >> 4) - minChunkZ;
+        if (chunkX < 0 || chunkX >= width || chunkZ < 0 || chunkZ >= depth) {
+            return null;
+        }
+        return chunks[chunkZ * width + chunkX];
+    }
+
+    public BlockState getBlockState(int x, int y, int z) {
+        if (y < 0 || y >= 256) {
+            return VOID_AIR;
+        }
+        IChunk chunk = getChunk(x, z);
+        if (chunk == null) {
+            return VOID_AIR;
+        }
+        ChunkSection section = chunk.getSections()[y >> 4];
+        if (section == Chunk.EMPTY_SECTION || section.isEmpty()) {
+            return AIR;
+        }
+        return section.getBlockState(x & 15, y & 15, z & 15);
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        return getBlockState(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Override
+    public IFluidState getFluidState(BlockPos pos) {
+        return getBlockState(pos).getFluidState();
+    }
+
+    @Nullable
+    @Override
+    public TileEntity getTileEntity(BlockPos pos) {
+        IChunk chunk = getChunk(pos.getX(), pos.getZ());
+        return chunk == null ? null : chunk.getTileEntity(pos);
+    }
+}
@@ -0,0 +1,293 @@
+package tfcr.utils;
+
+import net.minecraft.block.AirBlock;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.Mirror;
+import net.minecraft.util.Rotation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.gen.feature.template.Template;
+import tfcr.blocks.BranchBlock;
+import tfcr.blocks.LeavesBlock;
+import tfcr.blocks.LogBlock;
+
+import java.util.List;
+
+/**
+ * An immutable, flattened form of a tree Template.
+ *
+ * Vanilla Templates keep their blocks in nested lists of BlockInfo objects, which
+ * we can only reach through reflection, and which are relative to the corner of
+ * the structure. This class reads a Template once and stores every non-air block
+ * as a packed offset from the root of the tree (the trunk, at the bottom center of
+ * the template), alongside its BlockState.
+ *
+ * Branch, log and leaf entries are additionally indexed, since those are the only
+ * blocks growth and cleanup care about.
+ */
+public final class CompiledTreeTemplate {
+
+    // The kinds of blocks a template can contain, as far as trees are concerned.
+    public static final byte OTHER = 0;
+    public static final byte BRANCH = 1;
+    public static final byte LOG = 2;
+    public static final byte LEAVES = 3;
+
+    /**
+     * The number of rotation/mirror variants of each template; see {@link #transform(int)}.
+     */
+    public static final int VARIANTS = 8;
+
+    // Offsets are packed into 21 bits per axis, which is far more than any tree needs.
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private final BlockPos size;
+    private final BlockPos center;
+
+    private final long[] positions;
+    private final BlockState[] states;
+    private final byte[] kinds;
+
+    // Indices into the arrays above of every branch, log or leaf entry.
+    private final int[] woodIndices;
+
+    private CompiledTreeTemplate(BlockPos size, BlockPos center, long[] positions, BlockState[] states, byte[] kinds) {
+        this.size = size;
+        this.center = center;
+        this.positions = positions;
+        this.states = states;
+        this.kinds = kinds;
+
+        int woodCount = 0;
+        for (byte kind : kinds) {
+            if (kind != OTHER) {
+                woodCount++;
+            }
+        }
+        this.woodIndices = new int[woodCount];
+        for (int i = 0, j = 0; i < kinds.length; i++) {
+            if (kinds[i] != OTHER) {
+                woodIndices[j++] = i;
+            }
+        }
+    }
+
+    /**
+     * Flattens a Template. Air blocks are dropped, since trees never place air.
+     * @param template The Template to compile.
+     * @return The compiled template, or null if the Template's blocks couldn't be read.
+     */
+    public static CompiledTreeTemplate compile(Template template) {
+        List<Template.BlockInfo> blockInfos = TemplateHelper.getBlocks(template);
+        if (blockInfos == null) {
+            return null;
+        }
+
+        BlockPos size = template.getSize();
+        // The trunk of the tree is at the bottom center of the template.
+        BlockPos center = new BlockPos(size.getX() / 2, 0, size.getZ() / 2);
+
+        int count = 0;
+        for (Template.BlockInfo info : blockInfos) {
+            if (!(info.state.getBlock() instanceof AirBlock)) {
+                count++;
+            }
+        }
+
+        long[] positions = new long[count];
+        BlockState[] states = new BlockState[count];
+        byte[] kinds = new byte[count];
+
+        int i = 0;
+        for (Template.BlockInfo info : blockInfos) {
+            if (info.state.getBlock() instanceof AirBlock) {
+                continue;
+            }
+            positions[i] = pack(info.pos.getX() - center.getX(), info.pos.getY() - center.getY(), info.pos.getZ() - center.getZ());
+            states[i] = info.state;
+            kinds[i] = kindOf(info.state);
+            i++;
+        }
+
+        return new CompiledTreeTemplate(size, center, positions, states, kinds);
+    }
+
+    /**
+     * Builds a template directly from its blocks.
+     * @param size The size of the template's bounding box.
+     * @param center The position of the root within the bounding box.
+     * @param positions The position of each block relative to the root; see {@link #pack(int, int, int)}.
+     * @param states The block at each position. Should not contain air.
+     */
+    public static CompiledTreeTemplate of(BlockPos size, BlockPos center, long[] positions, BlockState[] states) {
+        byte[] kinds = new byte[states.length];
+        for (int i = 0; i < states.length; i++) {
+            kinds[i] = kindOf(states[i]);
+        }
+        return new CompiledTreeTemplate(size.toImmutable(), center.toImmutable(), positions.clone(), states.clone(), kinds);
+    }
+
+    /**
+     * Rotates and/or mirrors this template around its root.
+     *
+     * The low two bits of the variant pick the rotation, and the third bit whether the
+     * template is mirrored first. Together these cover all 8 ways of turning a tree
+     * around the vertical axis. The blocks are transformed too, so e.g. branches along
+     * the x axis end up along the z axis. Entries stay in the same order, so indices into
+     * this template are valid in every variant of it.
+     *
+     * @param variant A variant in [0, VARIANTS). Variant 0 is this template itself.
+     * @return The transformed template.
+     */
+    public CompiledTreeTemplate transform(int variant) {
+        if (variant == 0) {
+            return this;
+        }
+        Rotation rotation = Rotation.values()[variant & 3];
+        Mirror mirror = (variant & 4) != 0 ? Mirror.FRONT_BACK : Mirror.NONE;
+
+        long[] newPositions = new long[positions.length];
+        BlockState[] newStates = new BlockState[states.length];
+        for (int i = 0; i < positions.length; i++) {
+            newPositions[i] = transformPos(positions[i], mirror, rotation);
+            newStates[i] = states[i].mirror(mirror).rotate(rotation);
+        }
+
+        // Find where the root ends up within the new bounding box, from two opposite corners of the old one.
+        long minCorner = transformPos(pack(-center.getX(), 0, -center.getZ()), mirror, rotation);
+        long maxCorner = transformPos(pack(size.getX() - 1 - center.getX(), 0, size.getZ() - 1 - center.getZ()), mirror, rotation);
+        int minX = Math.min(unpackX(minCorner), unpackX(maxCorner));
+        int minZ = Math.min(unpackZ(minCorner), unpackZ(maxCorner));
+
+        boolean swapXZ = rotation == Rotation.CLOCKWISE_90 || rotation == Rotation.COUNTERCLOCKWISE_90;
+        BlockPos newSize = swapXZ ? new BlockPos(size.getZ(), size.getY(), size.getX()) : size;
+        BlockPos newCenter = new BlockPos(-minX, center.getY(), -minZ);
+
+        return new CompiledTreeTemplate(newSize, newCenter, newPositions, newStates, kinds);
+    }
+
+    // Mirrors, then rotates, a packed position around the root. Matches Template's transforms.
+    private static long transformPos(long packed, Mirror mirror, Rotation rotation) {
+        int x = unpackX(packed);
+        int y = unpackY(packed);
+        int z = unpackZ(packed);
+
+        if (mirror == Mirror.FRONT_BACK) {
+            x = -x;
+        } else if (mirror == Mirror.LEFT_RIGHT) {
+            z = -z;
+        }
+
+        switch (rotation) {
+            case CLOCKWISE_90: return pack(-z, y, x);
+            case CLOCKWISE_180: return pack(-x, y, -z);
+            case COUNTERCLOCKWISE_90: return pack(z, y, -x);
+            default: return pack(x, y, z);
+        }
+    }
+
+    /**
+     * @return Which kind of tree block the given state is; see the constants in this class.
+     */
+    public static byte kindOf(BlockState state) {
+        Block block = state.getBlock();
+        if (block instanceof BranchBlock) {
+            return BRANCH;
+        }
+        if (block instanceof LogBlock) {
+            return LOG;
+        }
+        if (block instanceof LeavesBlock) {
+            return LEAVES;
+        }
+        return OTHER;
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((x & MASK) << (2 * BITS)) | ((y & MASK) << BITS) | (z & MASK);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) ((packed << (64 - 3 * BITS)) >> (64 - BITS));
+    }
+
+    public static int unpackY(long packed) {
+        return (int) ((packed << (64 - 2 * BITS)) >> (64 - BITS));
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) ((packed << (64 - BITS)) >> (64 - BITS));
+    }
+
+    /**
+     * @return The size of the original Template.
+     */
+    public BlockPos getSize() {
+        return size;
+    }
+
+    /**
+     * @return The position of the root within the original Template.
+     */
+    public BlockPos getCenter() {
+        return center;
+    }
+
+    /**
+     * @return The box this template covers, when placed with its trunk at the given root.
+     */
+    public MutableBoundingBox getBounds(BlockPos root) {
+        int minX = root.getX() - center.getX();
+        int minY = root.getY() - center.getY();
+        int minZ = root.getZ() - center.getZ();
+        return new MutableBoundingBox(minX, minY, minZ, minX + size.getX() - 1, minY + size.getY() - 1, minZ + size.getZ() - 1);
+    }
+
+    /**
+     * @return The number of (non-air) blocks in this template.
+     */
+    public int size() {
+        return states.length;
+    }
+
+    public long getPackedPos(int index) {
+        return positions[index];
+    }
+
+    public int getX(int index) {
+        return unpackX(positions[index]);
+    }
+
+    public int getY(int index) {
+        return unpackY(positions[index]);
+    }
+
+    public int getZ(int index) {
+        return unpackZ(positions[index]);
+    }
+
+    public BlockState getState(int index) {
+        return states[index];
+    }
+
+    public byte getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @return The number of branch, log and leaf blocks in this template.
+     */
+    public int getWoodCount() {
+        return woodIndices.length;
+    }
+
+    /**
+     * @param woodIndex An index in [0, getWoodCount()).
+     * @return The index of the woodIndex-th branch, log or leaf block.
+     */
+    public int getWoodIndex(int woodIndex) {
+        return woodIndices[woodIndex];
+    }
+}
@@ -0,0 +1,54 @@
+package tfcr.utils;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.IWorld;
+import tfcr.data.LeafOwnership;
+
+/**
+ * An ITreeBlockWriter that writes straight through to the world. Used during
+ * worldgen, where we can't look outside of the region being generated.
+ */
+public class DirectTreeBlockWriter implements ITreeBlockWriter {
+
+    private final IWorld world;
+    private final int flags;
+
+    /**
+     * @param world The world (or worldgen region) to write to.
+     * @param flags Block update flags passed on to setBlockState.
+     */
+    public DirectTreeBlockWriter(IWorld world, int flags) {
+        this.world = world;
+        this.flags = flags;
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        return world.getBlockState(pos);
+    }
+
+    @Override
+    public void setBlockState(BlockPos pos, BlockState state) {
+        world.setBlockState(pos, state, flags);
+    }
+
+    @Override
+    public void removeBlock(BlockPos pos) {
+        world.removeBlock(pos, false);
+    }
+
+    @Override
+    public int getLeafOwners(BlockPos pos) {
+        return LeafOwnership.getOwners(world, pos);
+    }
+
+    @Override
+    public void setLeafOwners(BlockPos pos, int owners) {
+        LeafOwnership.setOwners(world, pos, owners);
+    }
+
+    @Override
+    public void flush() {
+    }
+}
@@ -0,0 +1,35 @@
+package tfcr.utils;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Everything tree growth and removal needs from the world.
+ *
+ * Implementations may buffer writes until {@link #flush()} is called, but reads
+ * must always reflect the writes made so far.
+ */
+public interface ITreeBlockWriter {
+
+    BlockState getBlockState(BlockPos pos);
+
+    void setBlockState(BlockPos pos, BlockState state);
+
+    void removeBlock(BlockPos pos);
+
+    /**
+     * @return How many trees own the leaf block at the given position; see {@link tfcr.data.LeafOwnership}.
+     */
+    int getLeafOwners(BlockPos pos);
+
+    /**
+     * Sets how many trees own the leaf block at the given position. Unlike block
+     * writes, this may take effect immediately.
+     */
+    void setLeafOwners(BlockPos pos, int owners);
+
+    /**
+     * Applies any buffered writes to the world.
+     */
+    void flush();
+}
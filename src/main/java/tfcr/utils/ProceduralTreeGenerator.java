@@ -0,0 +1,325 @@
+package tfcr.utils;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.block.DoublePlantBlock;
+import net.minecraft.state.properties.DoubleBlockHalf;
+import net.minecraft.util.Direction;
+import net.minecraft.util.math.BlockPos;
+import tfcr.blocks.BranchBlock;
+import tfcr.blocks.LeavesBlock;
+import tfcr.blocks.SaplingBlock;
+import tfcr.blocks.TallSaplingBlock;
+import tfcr.data.WoodType;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static tfcr.utils.CompiledTreeTemplate.pack;
+import static tfcr.utils.CompiledTreeTemplate.unpackX;
+import static tfcr.utils.CompiledTreeTemplate.unpackY;
+import static tfcr.utils.CompiledTreeTemplate.unpackZ;
+
+/**
+ * Generates tree shapes for wood types that have no hand-built templates.
+ *
+ * Only oak ships with a template for every age; building (and loading) nine templates
+ * for each of the other wood types doesn't scale. Instead, a tree is grown from a few
+ * simple rules: a trunk that tapers towards the top, side branches at regular heights
+ * along it, and a cluster of leaves around the end of every branch. Broadleaf trees
+ * get long, upturned branches with round crowns; conifers get short branches that
+ * shrink towards the top, for a cone shape.
+ *
+ * Every random choice comes from a seed that depends only on the wood type and variant,
+ * and is made the same way at every age. An older tree is the same tree with a taller
+ * trunk and longer branches, so growing from one age to the next only adds to it. Each
+ * variant is a different tree, also rotated/mirrored as in {@link CompiledTreeTemplate#transform(int)}.
+ *
+ * Generated shapes are cached for good. There are only WoodType x age x variant of them,
+ * and a tree looks up every age it grows through, so evicting any just regenerates it.
+ */
+public final class ProceduralTreeGenerator {
+
+    // The number of possible side branches along a trunk. Every slot consumes randomness
+    // whether or not the trunk is tall enough to use it, so shapes are stable across ages.
+    private static final int BRANCH_SLOTS = 24;
+
+    private static final Direction[] HORIZONTALS = { Direction.NORTH, Direction.EAST, Direction.SOUTH, Direction.WEST };
+
+    private enum Form {
+        BROADLEAF,
+        CONIFER
+    }
+
+    // Indexed by WoodType, age and variant; see getIndex. Filled in as shapes are first requested.
+    private static final AtomicReferenceArray<CompiledTreeTemplate> cache =
+            new AtomicReferenceArray<>(WoodType.values().length * (SaplingBlock.getMaxAge() + 1) * CompiledTreeTemplate.VARIANTS);
+
+    private static final AtomicInteger cachedCount = new AtomicInteger();
+
+    private ProceduralTreeGenerator() {}
+
+    /**
+     * Gets the generated shape of a tree.
+     * @param woodType The type of tree.
+     * @param age The age of the tree, in [0, SaplingBlock.getMaxAge()].
+     * @param variant Which shape to use, in [0, VARIANTS). The same variant of each age is the same tree.
+     * @return The generated template. Repeated calls return the same instance.
+     */
+    public static CompiledTreeTemplate get(WoodType woodType, int age, int variant) {
+        int index = getIndex(woodType, age, variant);
+        CompiledTreeTemplate cached = cache.get(index);
+        TreeMetrics.recordProceduralLookup(cached != null);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Generated without a lock, so worldgen threads don't wait on each other. If two
+        // threads generate the same shape, the results are identical and we keep the first.
+        CompiledTreeTemplate generated = generate(woodType, age, getSeed(woodType, variant)).transform(variant);
+        if (cache.compareAndSet(index, null, generated)) {
+            cachedCount.incrementAndGet();
+            return generated;
+        }
+        return cache.get(index);
+    }
+
+    /**
+     * @return The number of shapes currently cached.
+     */
+    public static int getCachedCount() {
+        return cachedCount.get();
+    }
+
+    private static int getIndex(WoodType woodType, int age, int variant) {
+        return (woodType.ordinal() * (SaplingBlock.getMaxAge() + 1) + age) * CompiledTreeTemplate.VARIANTS + variant;
+    }
+
+    static long getSeed(WoodType woodType, int variant) {
+        // String.hashCode is fixed by the spec, so this is the same on every run.
+        return (woodType.getName().hashCode() * 31L + variant) * 0x9E3779B97F4A7C15L;
+    }
+
+    private static Form getForm(WoodType woodType) {
+        switch (woodType) {
+            case DOUGLAS_FIR:
+            case PINE:
+            case SEQUOIA:
+            case SPRUCE:
+            case WHITE_CEDAR:
+                return Form.CONIFER;
+            default:
+                return Form.BROADLEAF;
+        }
+    }
+
+    /**
+     * Generates the shape of a tree, unrotated.
+     * @param woodType The type of tree.
+     * @param age The age of the tree. Age 0 is a sapling, and age 1 a tall sapling.
+     * @param seed The seed to make random choices with. The same seed gives the same tree.
+     * @return The generated template, with the trunk at the root.
+     */
+    public static CompiledTreeTemplate generate(WoodType woodType, int age, long seed) {
+        Long2ObjectLinkedOpenHashMap<BlockState> blocks = new Long2ObjectLinkedOpenHashMap<>();
+
+        if (age <= 0) {
+            blocks.put(pack(0, 0, 0), SaplingBlock.get(woodType).getDefaultState());
+        } else if (age == 1) {
+            BlockState sapling = TallSaplingBlock.get(woodType).getDefaultState();
+            blocks.put(pack(0, 0, 0), sapling.with(DoublePlantBlock.HALF, DoubleBlockHalf.LOWER));
+            blocks.put(pack(0, 1, 0), sapling.with(DoublePlantBlock.HALF, DoubleBlockHalf.UPPER));
+        } else {
+            Long2ObjectLinkedOpenHashMap<BlockState> branches = new Long2ObjectLinkedOpenHashMap<>();
+            Long2ObjectLinkedOpenHashMap<BlockState> leaves = new Long2ObjectLinkedOpenHashMap<>();
+            growTree(woodType, getForm(woodType), age, new Random(seed), branches, leaves);
+
+            connectBranches(branches);
+            blocks.putAll(branches);
+            for (Long2ObjectMap.Entry<BlockState> leaf : leaves.long2ObjectEntrySet()) {
+                blocks.putIfAbsent(leaf.getLongKey(), leaf.getValue());
+            }
+            setLeafDistances(blocks, branches);
+        }
+
+        return toTemplate(blocks);
+    }
+
+    private static void growTree(WoodType woodType, Form form, int age, Random random,
+                                 Long2ObjectLinkedOpenHashMap<BlockState> branches,
+                                 Long2ObjectLinkedOpenHashMap<BlockState> leaves) {
+        int growth = age - 1;
+        int height = form == Form.CONIFER ? 2 + growth * 2 : 2 + growth * 3 / 2;
+        int trunkDiameter = Math.min(14, 2 + 2 * ((age - 1) / 2));
+        int firstBranch = form == Form.CONIFER ? 2 : 3;
+        int spacing = form == Form.CONIFER ? 1 : 2;
+
+        // The trunk, thinning towards the top.
+        for (int y = 0; y < height; y++) {
+            boolean top = y == height - 1;
+            BlockState trunk = branch(woodType, top ? 2 : getTrunkDiameter(trunkDiameter, y, height), top, Direction.Axis.Y);
+            if (y == 0) {
+                trunk = trunk.with(BranchBlock.ROOT, true);
+            }
+            branches.put(pack(0, y, 0), trunk);
+        }
+        addLeaves(woodType, form, growth, 0, height - 1, 0, leaves);
+
+        // Side branches.
+        int lastDirection = -1;
+        for (int slot = 0; slot < BRANCH_SLOTS; slot++) {
+            int direction = random.nextInt(HORIZONTALS.length);
+            float lengthRoll = random.nextFloat();
+            int rise = random.nextInt(3);
+            boolean skipped = random.nextFloat() < 0.25f;
+
+            int y = firstBranch + slot * spacing;
+            if (skipped || y >= height - 1) {
+                continue;
+            }
+            // Don't stack branches directly on top of each other.
+            if (direction == lastDirection) {
+                direction = (direction + 1) % HORIZONTALS.length;
+            }
+            lastDirection = direction;
+
+            int length;
+            if (form == Form.CONIFER) {
+                length = Math.max(1, Math.round((height - y) * 0.35f * (0.5f + lengthRoll / 2)));
+                rise = 0;
+            } else {
+                length = 1 + Math.round(lengthRoll * growth * 0.6f);
+                rise = Math.min(rise, growth / 2);
+            }
+
+            // Branch diameters have to be even, like every other.
+            int diameter = Math.max(2, Math.min(getTrunkDiameter(trunkDiameter, y, height) - 2, (trunkDiameter / 2) & ~1));
+            Direction facing = HORIZONTALS[direction];
+            int x = 0;
+            int z = 0;
+            for (int i = 1; i <= length; i++) {
+                x += facing.getXOffset();
+                z += facing.getZOffset();
+                boolean tip = i == length && rise == 0;
+                branches.putIfAbsent(pack(x, y, z), branch(woodType, tip ? 2 : diameter, tip, facing.getAxis()));
+                if (form == Form.CONIFER) {
+                    addLeaves(woodType, form, growth, x, y, z, leaves);
+                }
+            }
+            int tipY = y;
+            for (int i = 1; i <= rise; i++) {
+                tipY++;
+                branches.putIfAbsent(pack(x, tipY, z), branch(woodType, 2, i == rise, Direction.Axis.Y));
+            }
+            addLeaves(woodType, form, growth, x, tipY, z, leaves);
+        }
+    }
+
+    private static int getTrunkDiameter(int trunkDiameter, int y, int height) {
+        return Math.max(2, trunkDiameter - 2 * ((y * (trunkDiameter / 2)) / height));
+    }
+
+    private static BlockState branch(WoodType woodType, int diameter, boolean leafy, Direction.Axis axis) {
+        return BranchBlock.get(woodType, diameter, leafy).getDefaultState().with(BranchBlock.AXIS, axis);
+    }
+
+    // Adds a cluster of leaves around a branch tip.
+    private static void addLeaves(WoodType woodType, Form form, int growth, int cx, int cy, int cz,
+                                  Long2ObjectLinkedOpenHashMap<BlockState> leaves) {
+        BlockState leaf = LeavesBlock.get(woodType).getDefaultState();
+        int radius = form == Form.CONIFER ? 1 : 1 + growth / 3;
+        int below = form == Form.CONIFER ? 0 : 1;
+
+        for (int dy = -below; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                for (int dz = -radius; dz <= radius; dz++) {
+                    int distance = form == Form.CONIFER
+                            ? Math.abs(dx) + Math.abs(dy) + Math.abs(dz)
+                            : dx * dx + dy * dy + dz * dz;
+                    int limit = form == Form.CONIFER ? radius : radius * radius + radius;
+                    if (distance <= limit) {
+                        leaves.putIfAbsent(pack(cx + dx, cy + dy, cz + dz), leaf);
+                    }
+                }
+            }
+        }
+    }
+
+    // Sets which ends of each branch extend into their neighbors, as placement would.
+    private static void connectBranches(Long2ObjectLinkedOpenHashMap<BlockState> branches) {
+        BlockState air = Blocks.AIR.getDefaultState();
+        for (Long2ObjectMap.Entry<BlockState> entry : branches.long2ObjectEntrySet()) {
+            long pos = entry.getLongKey();
+            BlockState state = entry.getValue();
+            Direction positive = BranchBlock.getPositiveDirection(state.get(BranchBlock.AXIS));
+
+            int x = unpackX(pos);
+            int y = unpackY(pos);
+            int z = unpackZ(pos);
+            int dx = positive.getXOffset();
+            int dy = positive.getYOffset();
+            int dz = positive.getZOffset();
+            BlockState negativeState = branches.getOrDefault(pack(x - dx, y - dy, z - dz), air);
+            BlockState positiveState = branches.getOrDefault(pack(x + dx, y + dy, z + dz), air);
+            entry.setValue(BranchBlock.withNeighbors(state, negativeState, positiveState));
+        }
+    }
+
+    // Sets each leaf's distance to the nearest branch, as the world would once it's placed.
+    private static void setLeafDistances(Long2ObjectLinkedOpenHashMap<BlockState> blocks,
+                                         Long2ObjectLinkedOpenHashMap<BlockState> branches) {
+        LongArrayFIFOQueue queue = new LongArrayFIFOQueue();
+        for (long pos : branches.keySet()) {
+            queue.enqueue(pos);
+        }
+
+        // Branches aren't in here, so they have distance 0.
+        Long2IntOpenHashMap distances = new Long2IntOpenHashMap();
+        while (!queue.isEmpty()) {
+            long pos = queue.dequeueLong();
+            int distance = distances.get(pos);
+            if (distance >= 7) {
+                continue;
+            }
+            for (Direction direction : Direction.values()) {
+                long neighbor = pack(unpackX(pos) + direction.getXOffset(), unpackY(pos) + direction.getYOffset(), unpackZ(pos) + direction.getZOffset());
+                BlockState state = blocks.get(neighbor);
+                if (state != null && state.getBlock() instanceof LeavesBlock && !distances.containsKey(neighbor)) {
+                    distances.put(neighbor, distance + 1);
+                    blocks.put(neighbor, state.with(LeavesBlock.DISTANCE, distance + 1));
+                    queue.enqueue(neighbor);
+                }
+            }
+        }
+    }
+
+    private static CompiledTreeTemplate toTemplate(Long2ObjectLinkedOpenHashMap<BlockState> blocks) {
+        int minX = 0, minY = 0, minZ = 0;
+        int maxX = 0, maxY = 0, maxZ = 0;
+        long[] positions = new long[blocks.size()];
+        BlockState[] states = new BlockState[blocks.size()];
+
+        int i = 0;
+        for (Long2ObjectMap.Entry<BlockState> entry : blocks.long2ObjectEntrySet()) {
+            long pos = entry.getLongKey();
+            minX = Math.min(minX, unpackX(pos));
+            minY = Math.min(minY, unpackY(pos));
+            minZ = Math.min(minZ, unpackZ(pos));
+            maxX = Math.max(maxX, unpackX(pos));
+            maxY = Math.max(maxY, unpackY(pos));
+            maxZ = Math.max(maxZ, unpackZ(pos));
+            positions[i] = pos;
+            states[i] = entry.getValue();
+            i++;
+        }
+
+        BlockPos size = new BlockPos(maxX - minX + 1, maxY - minY + 1, maxZ - minZ + 1);
+        BlockPos center = new BlockPos(-minX, -minY, -minZ);
+        return CompiledTreeTemplate.of(size, center, positions, states);
+    }
+}
@@ -17,6 +17,9 @@ import java.util.stream.Collectors;
 
 public class TemplateHelper {
 
+    // Template's private "blocks" field. Looked up once, on first use.
+    private static Field templateBlocks;
+
     public static String getTreeTemplateLocation(WoodType woodType, int age) {
         return woodType.getName() + "/age_" + age;
     }
@@ -49,8 +52,11 @@ public class TemplateHelper {
         }
 
         try {
-            Field templateBlocks = Template.class.getDeclaredField("blocks");
-            templateBlocks.setAccessible(true);
+            if (templateBlocks == null) {
+                Field field = Template.class.getDeclaredField("blocks");
+                field.setAccessible(true);
+                templateBlocks = field;
+            }
 
             List<List<Template.BlockInfo>> blocks = (List<List<Template.BlockInfo>>) templateBlocks.get(template);
 
@@ -0,0 +1,217 @@
+package tfcr.utils;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.MutableBoundingBox;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A per-dimension spatial index of tree footprints: the bounding box of each tree's
+ * current template, keyed by the position of its root.
+ *
+ * Finding neighboring trees used to mean reading every block in a template's volume.
+ * Instead, footprints are bucketed into a grid of 16x16 columns, so asking which
+ * trees overlap a box only looks at the few footprints in the columns it covers.
+ *
+ * Footprints are added by TreeTileEntities as they load and grow, and removed when
+ * the tree is removed or its chunk unloads, so only loaded trees are indexed. It's used
+ * to tell which leaves and wood still belong to a neighboring tree when one is removed
+ * (see LeafDecaySweep and TreeFeller). It's never used to make worldgen decisions,
+ * since its contents depend on what happens to be loaded. Every index is guarded by a
+ * read/write lock, so it's safe to read from any thread.
+ */
+@Mod.EventBusSubscriber
+public class TreeFootprintIndex {
+
+    // Grid cells are 2^4 = 16 blocks wide, the same as a chunk.
+    private static final int CELL_SHIFT = 4;
+
+    private static final Map<DimensionType, TreeFootprintIndex> indices = new ConcurrentHashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Every footprint, by BlockPos.toLong() of its root.
+    private final Long2ObjectOpenHashMap<Footprint> byRoot = new Long2ObjectOpenHashMap<>();
+    // The footprints overlapping each grid cell, by ChunkPos.asLong() of the cell.
+    private final Long2ObjectOpenHashMap<List<Footprint>> cells = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * The space taken up by a single tree.
+     */
+    public static final class Footprint {
+        private final BlockPos root;
+        private final MutableBoundingBox bounds;
+
+        private Footprint(BlockPos root, MutableBoundingBox bounds) {
+            this.root = root.toImmutable();
+            this.bounds = new MutableBoundingBox(bounds);
+        }
+
+        public BlockPos getRoot() {
+            return root;
+        }
+
+        /**
+         * @return The tree's bounding box. Must not be modified.
+         */
+        public MutableBoundingBox getBounds() {
+            return bounds;
+        }
+
+        public boolean contains(BlockPos pos) {
+            return bounds.isVecInside(pos);
+        }
+    }
+
+    /**
+     * @return The index for the dimension of the given world.
+     */
+    public static TreeFootprintIndex get(IWorld world) {
+        return indices.computeIfAbsent(world.getDimension().getType(), type -> new TreeFootprintIndex());
+    }
+
+    /**
+     * Adds or replaces the footprint of the tree at the given root.
+     */
+    public void put(BlockPos root, MutableBoundingBox bounds) {
+        lock.writeLock().lock();
+        try {
+            putLocked(new Footprint(root, bounds));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the footprint of the tree at the given root, if there is one.
+     */
+    public void remove(BlockPos root) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(root.toLong());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Every tree whose footprint overlaps the given box.
+     */
+    public List<Footprint> getOverlapping(MutableBoundingBox box) {
+        lock.readLock().lock();
+        try {
+            return getOverlappingLocked(box);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Every tree other than the one at the given root whose footprint overlaps the given box.
+     */
+    public List<Footprint> getOverlapping(MutableBoundingBox box, BlockPos except) {
+        List<Footprint> result = getOverlapping(box);
+        result.removeIf(footprint -> footprint.root.equals(except));
+        return result;
+    }
+
+    /**
+     * @return Whether the given position is inside any of the given footprints.
+     */
+    public static boolean isInsideAny(List<Footprint> footprints, BlockPos pos) {
+        for (Footprint footprint : footprints) {
+            if (footprint.contains(pos)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of trees in this index.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byRoot.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void putLocked(Footprint footprint) {
+        removeLocked(footprint.root.toLong());
+        byRoot.put(footprint.root.toLong(), footprint);
+
+        MutableBoundingBox bounds = footprint.bounds;
+        for (int cx = bounds.minX >> CELL_SHIFT; cx <= bounds.maxX >> CELL_SHIFT; cx++) {
+            for (int cz = bounds.minZ >> CELL_SHIFT; cz <= bounds.maxZ >> CELL_SHIFT; cz++) {
+                cells.computeIfAbsent(ChunkPos.asLong(cx, cz), key -> new ArrayList<>(2)).add(footprint);
+            }
+        }
+    }
+
+    private void removeLocked(long root) {
+        Footprint footprint = byRoot.remove(root);
+        if (footprint == null) {
+            return;
+        }
+
+        MutableBoundingBox bounds = footprint.bounds;
+        for (int cx = bounds.minX >> CELL_SHIFT; cx <= bounds.maxX >> CELL_SHIFT; cx++) {
+            for (int cz = bounds.minZ >> CELL_SHIFT; cz <= bounds.maxZ >> CELL_SHIFT; cz++) {
+                long key = ChunkPos.asLong(cx, cz);
+                List<Footprint> cell = cells.get(key);
+                if (cell != null) {
+                    cell.remove(footprint);
+                    if (cell.isEmpty()) {
+                        cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private List<Footprint> getOverlappingLocked(MutableBoundingBox box) {
+        List<Footprint> result = new ArrayList<>();
+        int minCellX = box.minX >> CELL_SHIFT;
+        int minCellZ = box.minZ >> CELL_SHIFT;
+        for (int cx = minCellX; cx <= box.maxX >> CELL_SHIFT; cx++) {
+            for (int cz = minCellZ; cz <= box.maxZ >> CELL_SHIFT; cz++) {
+                List<Footprint> cell = cells.get(ChunkPos.asLong(cx, cz));
+                if (cell == null) {
+                    continue;
+                }
+                for (Footprint footprint : cell) {
+                    // A footprint spanning several cells is only reported from the first
+                    // cell it shares with the box, so it isn't returned twice.
+                    int firstX = Math.max(minCellX, footprint.bounds.minX >> CELL_SHIFT);
+                    int firstZ = Math.max(minCellZ, footprint.bounds.minZ >> CELL_SHIFT);
+                    if (cx == firstX && cz == firstZ && footprint.bounds.intersectsWith(box)) {
+                        result.add(footprint);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    @SubscribeEvent
+    public static void onWorldUnload(WorldEvent.Unload event) {
+        if (!event.getWorld().isRemote()) {
+            indices.remove(event.getWorld().getDimension().getType());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package tfcr.utils;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.block.BlockState;
+
+/**
+ * The difference between two compiled tree templates of the same tree.
+ *
+ * Growing a tree used to remove every block of the old template and then place
+ * every block of the new one, even though most branches and leaves are in the
+ * same place in both. This class precomputes which positions actually differ,
+ * so growth only has to touch those:
+ *
+ *  - removed: tree blocks (branches, logs, leaves) only in the old template.
+ *  - added: blocks only in the new template.
+ *  - changed: positions in both templates, but with a different block.
+ *  - unchanged: positions with the same block in both templates.
+ *
+ * Leaves count as the same block regardless of their properties, since their distance
+ * is recomputed by the world anyway, and their tree count is unaffected by growing in
+ * place. Unchanged positions are still checked when growing, so blocks a player harvested
+ * from the tree are grown back, as they were when the whole template was re-placed.
+ */
+public final class TreeGrowthDelta {
+
+    private final CompiledTreeTemplate from;
+    private final CompiledTreeTemplate to;
+
+    // Indices into "from".
+    private final int[] removed;
+    // Indices into "to".
+    private final int[] added;
+    // Parallel arrays of indices into "from" and "to".
+    private final int[] changedFrom;
+    private final int[] changedTo;
+    // Indices into "to".
+    private final int[] unchanged;
+
+    private TreeGrowthDelta(CompiledTreeTemplate from, CompiledTreeTemplate to, int[] removed, int[] added,
+                            int[] changedFrom, int[] changedTo, int[] unchanged) {
+        this.from = from;
+        this.to = to;
+        this.removed = removed;
+        this.added = added;
+        this.changedFrom = changedFrom;
+        this.changedTo = changedTo;
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * Computes the delta needed to turn a tree shaped like "from" into one shaped like "to".
+     * Both templates must be relative to the same root.
+     */
+    public static TreeGrowthDelta compute(CompiledTreeTemplate from, CompiledTreeTemplate to) {
+        Long2IntOpenHashMap fromIndices = new Long2IntOpenHashMap(from.size());
+        fromIndices.defaultReturnValue(-1);
+        for (int i = 0; i < from.size(); i++) {
+            fromIndices.put(from.getPackedPos(i), i);
+        }
+
+        IntArrayList added = new IntArrayList();
+        IntArrayList changedFrom = new IntArrayList();
+        IntArrayList changedTo = new IntArrayList();
+        IntArrayList unchanged = new IntArrayList();
+        boolean[] inBoth = new boolean[from.size()];
+
+        for (int j = 0; j < to.size(); j++) {
+            int i = fromIndices.get(to.getPackedPos(j));
+            if (i == -1) {
+                added.add(j);
+                continue;
+            }
+
+            inBoth[i] = true;
+            if (!isSameBlock(from.getState(i), to.getState(j))) {
+                changedFrom.add(i);
+                changedTo.add(j);
+            } else {
+                unchanged.add(j);
+            }
+        }
+
+        // Only tree blocks are ever removed when a tree grows.
+        IntArrayList removed = new IntArrayList();
+        for (int i = 0; i < from.size(); i++) {
+            if (!inBoth[i] && from.getKind(i) != CompiledTreeTemplate.OTHER) {
+                removed.add(i);
+            }
+        }
+
+        return new TreeGrowthDelta(from, to, removed.toIntArray(), added.toIntArray(),
+                changedFrom.toIntArray(), changedTo.toIntArray(), unchanged.toIntArray());
+    }
+
+    /**
+     * Reuses this delta for a rotated or mirrored variant of its templates (see
+     * {@link CompiledTreeTemplate#transform(int)}). Since transforming
+     * a template keeps its entries in the same order, the indices in this delta still apply.
+     * @param from The variant of {@link #getFrom()}.
+     * @param to The same variant of {@link #getTo()}.
+     */
+    public TreeGrowthDelta forVariant(CompiledTreeTemplate from, CompiledTreeTemplate to) {
+        return new TreeGrowthDelta(from, to, removed, added, changedFrom, changedTo, unchanged);
+    }
+
+    private static boolean isSameBlock(BlockState a, BlockState b) {
+        if (CompiledTreeTemplate.kindOf(a) == CompiledTreeTemplate.LEAVES) {
+            return a.getBlock() == b.getBlock();
+        }
+        return a == b;
+    }
+
+    public CompiledTreeTemplate getFrom() {
+        return from;
+    }
+
+    public CompiledTreeTemplate getTo() {
+        return to;
+    }
+
+    public int getRemovedCount() {
+        return removed.length;
+    }
+
+    /**
+     * @return The index in {@link #getFrom()} of the i-th removed block.
+     */
+    public int getRemoved(int i) {
+        return removed[i];
+    }
+
+    public int getAddedCount() {
+        return added.length;
+    }
+
+    /**
+     * @return The index in {@link #getTo()} of the i-th added block.
+     */
+    public int getAdded(int i) {
+        return added[i];
+    }
+
+    public int getChangedCount() {
+        return changedFrom.length;
+    }
+
+    /**
+     * @return The index in {@link #getFrom()} of the i-th changed block.
+     */
+    public int getChangedFrom(int i) {
+        return changedFrom[i];
+    }
+
+    /**
+     * @return The index in {@link #getTo()} of the i-th changed block.
+     */
+    public int getChangedTo(int i) {
+        return changedTo[i];
+    }
+
+    public int getUnchangedCount() {
+        return unchanged.length;
+    }
+
+    /**
+     * @return The index in {@link #getTo()} of the i-th unchanged block.
+     */
+    public int getUnchanged(int i) {
+        return unchanged[i];
+    }
+}
@@ -0,0 +1,271 @@
+package tfcr.utils;
+
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.ServerWorld;
+import net.minecraft.world.dimension.DimensionType;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.common.gameevent.TickEvent;
+import net.minecraftforge.fml.loading.FMLPaths;
+import net.minecraftforge.fml.server.ServerLifecycleHooks;
+import tfcr.TFCRConfig;
+import tfcr.tileentity.TreeGrowthWorkQueue;
+import tfcr.tileentity.TreeObstructionIndex;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and timings for tree growth, so server owners can see what trees cost.
+ *
+ * Everything here is cheap to record (a few atomic adds), so it's always on. The numbers
+ * can be viewed with "/tfcr perf trees", and are optionally appended to a CSV or JSON
+ * file every few seconds; see {@link TFCRConfig#metricsDumpIntervalSeconds}.
+ */
+@Mod.EventBusSubscriber
+public class TreeMetrics {
+
+    public enum DumpFormat {
+        CSV,
+        JSON
+    }
+
+    /** Time taken by a whole growth step, in nanoseconds. */
+    public static final Histogram GROWTH_TIME = new Histogram();
+    /** Time spent removing old tree blocks (cleanupTree), in nanoseconds. */
+    public static final Histogram CLEANUP_TIME = new Histogram();
+    /** Time spent placing new tree blocks (spawnTree, or applying a growth delta), in nanoseconds. */
+    public static final Histogram SPAWN_TIME = new Histogram();
+    /** Blocks placed per growth step. */
+    public static final Histogram BLOCKS_PLACED = new Histogram();
+    /** Blocks removed per growth step. */
+    public static final Histogram BLOCKS_REMOVED = new Histogram();
+    /** Growth steps per server tick, including ticks without any. */
+    public static final Histogram GROWTH_PER_TICK = new Histogram();
+
+    private static final AtomicLong templateHits = new AtomicLong();
+    private static final AtomicLong templateMisses = new AtomicLong();
+    private static final AtomicLong proceduralHits = new AtomicLong();
+    private static final AtomicLong proceduralMisses = new AtomicLong();
+
+    // The number of TreeTileEntities loaded in each dimension.
+    private static final Map<DimensionType, AtomicInteger> liveTrees = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger growthThisTick = new AtomicInteger();
+
+    private static int ticksSinceDump = 0;
+
+    /**
+     * Records a finished growth step.
+     * @param nanos How long the whole step took.
+     * @param placed The number of blocks placed.
+     * @param removed The number of blocks removed.
+     */
+    public static void recordGrowth(long nanos, int placed, int removed) {
+        GROWTH_TIME.record(nanos);
+        growthThisTick.incrementAndGet();
+        BLOCKS_PLACED.record(placed);
+        BLOCKS_REMOVED.record(removed);
+    }
+
+    /**
+     * Records a template lookup that was (or wasn't) already compiled.
+     */
+    public static void recordTemplateLookup(boolean hit) {
+        (hit ? templateHits : templateMisses).incrementAndGet();
+    }
+
+    /**
+     * Records a procedural tree lookup that was (or wasn't) already cached.
+     */
+    public static void recordProceduralLookup(boolean hit) {
+        (hit ? proceduralHits : proceduralMisses).incrementAndGet();
+    }
+
+    /**
+     * Records a TreeTileEntity being loaded into the given world. Must be matched by
+     * exactly one {@link #recordTreeUnloaded(IWorld)}.
+     */
+    public static void recordTreeLoaded(IWorld world) {
+        liveTrees.computeIfAbsent(world.getDimension().getType(), type -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /**
+     * Records a TreeTileEntity being removed from the given world, or its chunk unloading.
+     */
+    public static void recordTreeUnloaded(IWorld world) {
+        AtomicInteger count = liveTrees.get(world.getDimension().getType());
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The number of TreeTileEntities loaded in the given world.
+     */
+    public static int getLiveTreeCount(IWorld world) {
+        AtomicInteger count = liveTrees.get(world.getDimension().getType());
+        return count == null ? 0 : count.get();
+    }
+
+    public static void reset() {
+        GROWTH_TIME.reset();
+        CLEANUP_TIME.reset();
+        SPAWN_TIME.reset();
+        BLOCKS_PLACED.reset();
+        BLOCKS_REMOVED.reset();
+        GROWTH_PER_TICK.reset();
+        templateHits.set(0);
+        templateMisses.set(0);
+        proceduralHits.set(0);
+        proceduralMisses.set(0);
+    }
+
+    /**
+     * @return The number of loaded trees in each dimension, by dimension name.
+     */
+    public static Map<String, Integer> getLiveTrees(MinecraftServer server) {
+        Map<String, Integer> trees = new LinkedHashMap<>();
+        for (ServerWorld world : server.getWorlds()) {
+            trees.put(String.valueOf(DimensionType.getKey(world.getDimension().getType())), getLiveTreeCount(world));
+        }
+        return trees;
+    }
+
+    /**
+     * @return A human readable summary of every metric, one line per entry.
+     */
+    public static List<String> getReport(MinecraftServer server) {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("Growth: %d events, %s", GROWTH_TIME.getCount(), formatTime(GROWTH_TIME)));
+        lines.add(String.format("Growth per tick: mean %.3f, p99 %d, max %d",
+                GROWTH_PER_TICK.getMean(), GROWTH_PER_TICK.getPercentile(99), GROWTH_PER_TICK.getMax()));
+        lines.add(String.format("Cleanup: %s", formatTime(CLEANUP_TIME)));
+        lines.add(String.format("Spawn: %s", formatTime(SPAWN_TIME)));
+        lines.add(String.format("Blocks per growth: %.1f placed (max %d), %.1f removed (max %d)",
+                BLOCKS_PLACED.getMean(), BLOCKS_PLACED.getMax(), BLOCKS_REMOVED.getMean(), BLOCKS_REMOVED.getMax()));
+        lines.add(String.format("Templates: %d hits, %d misses. Procedural: %d hits, %d misses, %d cached",
+                templateHits.get(), templateMisses.get(), proceduralHits.get(), proceduralMisses.get(), ProceduralTreeGenerator.getCachedCount()));
+        lines.add(String.format("Queue: %d waiting, %d deferred last tick, %d deferred total",
+                TreeGrowthWorkQueue.getQueueDepth(), TreeGrowthWorkQueue.getDeferredLastTick(), TreeGrowthWorkQueue.getTotalDeferred()));
+        for (ServerWorld world : server.getWorlds()) {
+            lines.add(String.format("Loaded trees in %s: %d (%d blocked)", DimensionType.getKey(world.getDimension().getType()),
+                    getLiveTreeCount(world), TreeObstructionIndex.getBlockedCount(world)));
+        }
+        return lines;
+    }
+
+    private static String formatTime(Histogram histogram) {
+        return String.format("mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                histogram.getMean() / 1e6,
+                histogram.getPercentile(50) / 1e6,
+                histogram.getPercentile(99) / 1e6,
+                histogram.getMax() / 1e6);
+    }
+
+    // Every metric as a flat list of (name, value) pairs, in a fixed order, for dumping.
+    private static Map<String, Object> getValues(MinecraftServer server) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        values.put("time", System.currentTimeMillis());
+        addHistogram(values, "growth_ns", GROWTH_TIME);
+        addHistogram(values, "cleanup_ns", CLEANUP_TIME);
+        addHistogram(values, "spawn_ns", SPAWN_TIME);
+        addHistogram(values, "blocks_placed", BLOCKS_PLACED);
+        addHistogram(values, "blocks_removed", BLOCKS_REMOVED);
+        addHistogram(values, "growth_per_tick", GROWTH_PER_TICK);
+        values.put("template_hits", templateHits.get());
+        values.put("template_misses", templateMisses.get());
+        values.put("procedural_hits", proceduralHits.get());
+        values.put("procedural_misses", proceduralMisses.get());
+        values.put("queue_depth", TreeGrowthWorkQueue.getQueueDepth());
+        values.put("deferred_total", TreeGrowthWorkQueue.getTotalDeferred());
+        for (Map.Entry<String, Integer> entry : getLiveTrees(server).entrySet()) {
+            values.put("trees_" + entry.getKey().replace(':', '_'), entry.getValue());
+        }
+        return values;
+    }
+
+    private static void addHistogram(Map<String, Object> values, String name, Histogram histogram) {
+        values.put(name + "_count", histogram.getCount());
+        values.put(name + "_mean", Math.round(histogram.getMean()));
+        values.put(name + "_p50", histogram.getPercentile(50));
+        values.put(name + "_p99", histogram.getPercentile(99));
+        values.put(name + "_max", histogram.getMax());
+    }
+
+    /**
+     * Appends the current values of every metric to the dump file.
+     * @return The file written to.
+     */
+    public static Path dump(MinecraftServer server, DumpFormat format) throws IOException {
+        Map<String, Object> values = getValues(server);
+        Path path = FMLPaths.GAMEDIR.get().resolve("tfcr").resolve(format == DumpFormat.CSV ? "tree-metrics.csv" : "tree-metrics.jsonl");
+        Files.createDirectories(path.getParent());
+        boolean isNew = !Files.exists(path);
+
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (format == DumpFormat.CSV) {
+                if (isNew) {
+                    writer.write(String.join(",", values.keySet()));
+                    writer.write('\n');
+                }
+                List<String> row = new ArrayList<>();
+                for (Object value : values.values()) {
+                    row.add(String.valueOf(value));
+                }
+                writer.write(String.join(",", row));
+            } else {
+                // One JSON object per line.
+                List<String> fields = new ArrayList<>();
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    fields.add("\"" + entry.getKey() + "\":" + entry.getValue());
+                }
+                writer.write("{" + String.join(",", fields) + "}");
+            }
+            writer.write('\n');
+        }
+        return path;
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(TickEvent.ServerTickEvent event) {
+        if (event.phase == TickEvent.Phase.START) {
+            // Growth runs at the end of a tick, so this is everything from the last one.
+            GROWTH_PER_TICK.record(growthThisTick.getAndSet(0));
+            return;
+        }
+
+        int interval = TFCRConfig.metricsDumpIntervalSeconds.get();
+        if (interval <= 0 || ++ticksSinceDump < interval * 20) {
+            return;
+        }
+        ticksSinceDump = 0;
+
+        try {
+            dump(ServerLifecycleHooks.getCurrentServer(), TFCRConfig.metricsDumpFormat.get());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Failed to write tree metrics. Disable metricsDumpIntervalSeconds to stop trying.");
+        }
+    }
+
+    @SubscribeEvent
+    public static void onWorldUnload(WorldEvent.Unload event) {
+        if (!event.getWorld().isRemote()) {
+            liveTrees.remove(event.getWorld().getDimension().getType());
+        }
+    }
+}
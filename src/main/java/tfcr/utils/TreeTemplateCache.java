@@ -0,0 +1,251 @@
+package tfcr.utils;
+
+import net.minecraft.nbt.CompressedStreamTools;
+import net.minecraft.util.ResourceLocation;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.ServerWorld;
+import net.minecraft.world.World;
+import net.minecraft.world.gen.feature.template.Template;
+import net.minecraft.world.gen.feature.template.TemplateManager;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.event.lifecycle.FMLCommonSetupEvent;
+import tfcr.TFCR;
+import tfcr.TFCRConfig;
+import tfcr.blocks.SaplingBlock;
+import tfcr.data.WoodType;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the compiled tree template for every (WoodType, age) pair.
+ *
+ * Every tree template shipped with the mod is read and compiled in parallel during
+ * common setup, on a small pool of worker threads. Growth and worldgen never have to
+ * parse NBT (or go through reflection) on the tick or worldgen threads; a lookup that
+ * happens while loading is still in progress waits for it to finish. Templates that
+ * aren't part of the mod (e.g. from a data pack) are loaded through the world's
+ * TemplateManager on demand instead.
+ *
+ * Every template is stored in all of its rotated and mirrored variants (see
+ * {@link CompiledTreeTemplate#transform(int)}), so a rotated tree costs no more to
+ * place or grow than an unrotated one.
+ *
+ * Trees without a template (every wood type but oak, for now) are generated by the
+ * {@link ProceduralTreeGenerator} instead, on both sides.
+ */
+@Mod.EventBusSubscriber(modid = TFCR.MODID, bus = Mod.EventBusSubscriber.Bus.MOD)
+public class TreeTemplateCache {
+
+    // Marks an entry we've looked up, but which has no template.
+    private static final Object MISSING = new Object();
+
+    // Indexed by [woodType.ordinal()][age]. Entries are null (not loaded yet),
+    // MISSING, or an array of every variant of the CompiledTreeTemplate.
+    private static final Object[][] templates = new Object[WoodType.values().length][SaplingBlock.getMaxAge() + 1];
+
+    // Growth deltas, indexed by [woodType.ordinal()][fromAge][toAge][variant]. Computed on first use,
+    // and recomputed if the templates they were computed from are rebuilt.
+    private static final TreeGrowthDelta[][][][] deltas = new TreeGrowthDelta[WoodType.values().length][SaplingBlock.getMaxAge() + 1][SaplingBlock.getMaxAge() + 1][CompiledTreeTemplate.VARIANTS];
+
+    // Completes once the startup load is done. Null if it was never started.
+    private static volatile CompletableFuture<Void> loading;
+
+    @SubscribeEvent
+    public static void onCommonSetup(FMLCommonSetupEvent event) {
+        loadAll();
+    }
+
+    /**
+     * Starts loading every tree template in the mod's resources, in parallel.
+     * @return A future that completes once every template has been loaded.
+     */
+    public static CompletableFuture<Void> loadAll() {
+        long start = System.nanoTime();
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "TFCR Template Loader #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<CompletableFuture<Boolean>> jobs = new ArrayList<>();
+        for (WoodType woodType : WoodType.values()) {
+            for (int age = 0; age <= SaplingBlock.getMaxAge(); age++) {
+                final int jobAge = age;
+                jobs.add(CompletableFuture.supplyAsync(() -> loadFromResources(woodType, jobAge), executor));
+            }
+        }
+
+        CompletableFuture<Void> future = CompletableFuture.allOf(jobs.toArray(new CompletableFuture[0]))
+                .thenRun(() -> {
+                    int found = 0;
+                    for (CompletableFuture<Boolean> job : jobs) {
+                        if (job.join()) {
+                            found++;
+                        }
+                    }
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+                    System.out.println("Loaded " + found + " tree templates in " + elapsed + " ms on " + threads + " threads.");
+                })
+                .whenComplete((result, error) -> executor.shutdown());
+        loading = future;
+        return future;
+    }
+
+    /**
+     * Blocks until the startup load of tree templates is done. Returns immediately if it is
+     * done already, or was never started.
+     */
+    public static void awaitReady() {
+        CompletableFuture<Void> future = loading;
+        if (future != null && !future.isDone()) {
+            future.join();
+        }
+    }
+
+    // Reads and compiles a single template from the mod's resources. Runs on a loader thread.
+    private static boolean loadFromResources(WoodType woodType, int age) {
+        String path = "/data/" + TFCR.MODID + "/structures/" + TemplateHelper.getTreeTemplateLocation(woodType, age) + ".nbt";
+        try (InputStream stream = TreeTemplateCache.class.getResourceAsStream(path)) {
+            if (stream == null) {
+                return false;
+            }
+
+            Template template = new Template();
+            template.read(CompressedStreamTools.readCompressed(stream));
+            CompiledTreeTemplate[] variants = compileVariants(template);
+            if (variants == null) {
+                return false;
+            }
+            templates[woodType.ordinal()][age] = variants;
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Failed to load tree template: " + path);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the compiled template for the given tree, unrotated.
+     * @see #get(IWorld, WoodType, int, int)
+     */
+    public static CompiledTreeTemplate get(IWorld world, WoodType woodType, int age) {
+        return get(world, woodType, age, 0);
+    }
+
+    /**
+     * Gets the compiled template for the given tree.
+     * @param world The world requesting the template. Only used if the cache hasn't been built.
+     * @param woodType The type of tree.
+     * @param age The age of the tree.
+     * @param variant Which rotation/mirror of the template to use. Out of range values use 0.
+     * @return The compiled template, or null if the age is out of range.
+     */
+    public static CompiledTreeTemplate get(IWorld world, WoodType woodType, int age, int variant) {
+        if (age < 0 || age > SaplingBlock.getMaxAge()) {
+            return null;
+        }
+        if (!isValidVariant(variant)) {
+            variant = 0;
+        }
+        if (TFCRConfig.proceduralTreesOnly.get()) {
+            return ProceduralTreeGenerator.get(woodType, age, variant);
+        }
+
+        Object entry = templates[woodType.ordinal()][age];
+        TreeMetrics.recordTemplateLookup(entry != null);
+        if (entry == null) {
+            // It may still be loading.
+            awaitReady();
+            entry = templates[woodType.ordinal()][age];
+        }
+        if (entry == null) {
+            World realWorld = world.getWorld();
+            if (realWorld.isRemote) {
+                // Clients can't load data pack templates; they get the same tree the server
+                // would, unless the server has a data pack for it.
+                return ProceduralTreeGenerator.get(woodType, age, variant);
+            }
+            CompiledTreeTemplate[] compiled = load(((ServerWorld) realWorld).getStructureTemplateManager(), woodType, age);
+            entry = compiled == null ? MISSING : compiled;
+            templates[woodType.ordinal()][age] = entry;
+        }
+
+        if (entry == MISSING) {
+            return ProceduralTreeGenerator.get(woodType, age, variant);
+        }
+        return ((CompiledTreeTemplate[]) entry)[variant];
+    }
+
+    // Whether the given tree comes from a template whose variants are all transforms of each other.
+    private static boolean isLoaded(WoodType woodType, int age) {
+        return !TFCRConfig.proceduralTreesOnly.get() && templates[woodType.ordinal()][age] instanceof CompiledTreeTemplate[];
+    }
+
+    private static boolean isValidVariant(int variant) {
+        return variant >= 0 && variant < CompiledTreeTemplate.VARIANTS;
+    }
+
+    /**
+     * Gets the difference between two ages of the same tree.
+     * @param world The world requesting the delta. Only used if the cache hasn't been built.
+     * @param woodType The type of tree.
+     * @param fromAge The age the tree currently is.
+     * @param toAge The age the tree is growing to.
+     * @param variant Which rotation/mirror of the templates to use. Out of range values use 0.
+     * @return The delta, or null if either age is out of range.
+     */
+    public static TreeGrowthDelta getDelta(IWorld world, WoodType woodType, int fromAge, int toAge, int variant) {
+        if (!isValidVariant(variant)) {
+            variant = 0;
+        }
+
+        CompiledTreeTemplate from = get(world, woodType, fromAge, variant);
+        CompiledTreeTemplate to = get(world, woodType, toAge, variant);
+        if (from == null || to == null) {
+            return null;
+        }
+
+        TreeGrowthDelta[] cached = deltas[woodType.ordinal()][fromAge][toAge];
+        TreeGrowthDelta delta = cached[variant];
+        if (delta == null || delta.getFrom() != from || delta.getTo() != to) {
+            if (variant == 0 || !isLoaded(woodType, fromAge) || !isLoaded(woodType, toAge)) {
+                // Procedural trees are a different shape in every variant, so they each get their own delta.
+                delta = TreeGrowthDelta.compute(from, to);
+            } else {
+                // Every variant of a loaded template has the same delta, just applied to different templates.
+                delta = getDelta(world, woodType, fromAge, toAge, 0).forVariant(from, to);
+            }
+            cached[variant] = delta;
+        }
+        return delta;
+    }
+
+    private static CompiledTreeTemplate[] load(TemplateManager manager, WoodType woodType, int age) {
+        ResourceLocation location = new ResourceLocation(TFCR.MODID, TemplateHelper.getTreeTemplateLocation(woodType, age));
+        return compileVariants(manager.getTemplate(location));
+    }
+
+    private static CompiledTreeTemplate[] compileVariants(Template template) {
+        CompiledTreeTemplate compiled = template == null ? null : CompiledTreeTemplate.compile(template);
+        if (compiled == null) {
+            return null;
+        }
+
+        CompiledTreeTemplate[] variants = new CompiledTreeTemplate[CompiledTreeTemplate.VARIANTS];
+        for (int variant = 0; variant < variants.length; variant++) {
+            variants[variant] = compiled.transform(variant);
+        }
+        return variants;
+    }
+}
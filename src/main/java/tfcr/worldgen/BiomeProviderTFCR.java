@@ -3,6 +3,7 @@ package tfcr.worldgen;
 import com.google.common.collect.Sets;
 import net.minecraft.block.BlockState;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
 import net.minecraft.world.WorldType;
 import net.minecraft.world.biome.Biome;
 import net.minecraft.world.biome.Biomes;
@@ -11,6 +12,7 @@ import net.minecraft.world.biome.provider.OverworldBiomeProviderSettings;
 import net.minecraft.world.gen.OverworldGenSettings;
 import net.minecraft.world.gen.feature.structure.Structure;
 import net.minecraft.world.storage.WorldInfo;
+import tfcr.data.TFCRTemperature;
 import tfcr.worldgen.biome.BaseTFCRBiome;
 import tfcr.worldgen.biome.ChaparralBiome;
 import tfcr.worldgen.biome.DeciduousForestBiome;
@@ -61,6 +63,11 @@ public class BiomeProviderTFCR extends BiomeProvider {
     private final Layer genBiomes;
     /** A Layer containing a factory to generate biome arrays for {@llink #getBiomes(int, int, int, int, boolean)} */
     private final Layer biomeFactoryLayer;
+    private final long seed;
+
+    /** Caches biomeFactoryLayer on disk. Null if the cache is disabled, or not opened yet. */
+    @Nullable
+    private BiomeRegionCache regionCache;
 
     public static BaseTFCRBiome[] biomes;
 
@@ -125,18 +132,33 @@ public class BiomeProviderTFCR extends BiomeProvider {
         WorldType worldType = worldInfo.getGenerator();
         OverworldGenSettings overworldGenSettings = settings.getGeneratorSettings();
 
+        // Temperature has to be set up for this world even when every biome comes from the
+        // region cache, and the layers never run.
+        TFCRTemperature.initialize(seed);
+
         // Regular temp/precip biome map
 //        Layer[] layers = LayerUtilsTFCR.buildOverworldProcedure(seed, worldType, overworldGenSettings);
         // Simplified biomes (only TemperateConiferousBiome + river, ocean, etc.)
         Layer[] layers = LayerUtilsTFCR.buildSimpleProcedure(seed, worldType, overworldGenSettings);
         this.genBiomes = layers[0];
         this.biomeFactoryLayer = layers[1]; // Voronoi zoomed out version of genBiomes
+        this.seed = seed;
+    }
 
+    /**
+     * Starts caching this world's biome map on disk, if enabled; see {@link BiomeRegionCache}.
+     * @param world The world this provider generates biomes for.
+     */
+    public void openRegionCache(World world) {
+        this.regionCache = BiomeRegionCache.open(world, seed, biomeFactoryLayer);
     }
 
     @Nonnull
     @Override
     public Biome getBiome(int x, int z) {
+        if (regionCache != null) {
+            return biomeFactoryLayer.getByID(regionCache.getValue(x, z));
+        }
         return biomeFactoryLayer.getByPos(x, z);
     }
 
@@ -146,6 +168,9 @@ public class BiomeProviderTFCR extends BiomeProvider {
     public Biome[] getBiomes(int x, int z, int width, int length, boolean cacheFlag) {
 //        System.out.println("getBiomes called with bounds: " + x + ", " + z + ", " + width + ", " + length);
 //        return cacheFlag && width == 16 && length == 16 && (x & 15) == 0 && (z & 15) == 0 ? this.cache.getCachedBiomes(x, z) : this.biomeFactoryLayer.generateBiomes(x, z, width, length, DEFAULT);
+        if (regionCache != null) {
+            return Layer.toBiomes(regionCache.getValues(x, z, width, length), DEFAULT);
+        }
         return this.biomeFactoryLayer.generateBiomes(x, z, width, length, DEFAULT);
 
 //        if (cacheFlag && width == 16 && length == 16 && (x & 15) == 0 && (z & 15) == 0) {
@@ -0,0 +1,523 @@
+package tfcr.worldgen;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.IWorld;
+import net.minecraft.world.ServerWorld;
+import net.minecraft.world.World;
+import net.minecraftforge.event.world.WorldEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+import tfcr.TFCRConfig;
+import tfcr.worldgen.genlayer.Layer;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Keeps the final biome map of a world on disk, so every block column only goes through
+ * the layer stack once, even across restarts.
+ *
+ * The map is stored in 512x512 block regions, in "tfcr/biomes/r.X.Z.bin" in the world's
+ * (or dimension's) folder. Each file starts with a header: the file format, the
+ * procedure version (see {@link LayerUtilsTFCR#PROCEDURE_VERSION}), the world seed, and
+ * the number of biomes. Files whose header doesn't match are ignored, and regenerated.
+ * After the header comes the deflate-compressed region: a bitmap of which chunks have
+ * been generated, and the biome index of every block column, one byte each.
+ *
+ * Regions are read into memory the first time they're asked for, and kept there until
+ * there are more than {@link #MAX_LOADED}. Chunks a region doesn't have yet are generated
+ * by the layer as they're asked for, or all at once with {@link #pregenerate}. Changed
+ * regions are written back when they're dropped from memory, and when the world saves
+ * or unloads.
+ *
+ * The lock on a cache only guards the regions in memory; files are read and written
+ * without holding it, so waiting on the disk for one region doesn't hold up threads
+ * asking for others. A region is read by the first thread to ask for it, and the rest
+ * wait for that read. Writes happen in the background, one at a time, from a copy of the
+ * region. A changed region that's dropped stays in memory until it's written, and is kept
+ * there if the write fails, to be tried again on the next save.
+ */
+@Mod.EventBusSubscriber
+public class BiomeRegionCache {
+
+    private static final int MAGIC = 0x54464342; // "TFCB"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 24;
+
+    private static final int REGION_SHIFT = 9;
+    private static final int REGION_SIZE = 1 << REGION_SHIFT;
+    private static final int CHUNKS_PER_SIDE = REGION_SIZE >> 4;
+    private static final int CHUNK_REGION_SHIFT = REGION_SHIFT - 4;
+
+    private static final int MAX_LOADED = 16;
+
+    // Stored for layer values that aren't a biome index. Also caps the number of biomes.
+    private static final int NO_BIOME = 0xFF;
+
+    // Also read by the pregeneration thread; see ModCommands.
+    private static final Map<IWorld, BiomeRegionCache> caches = new ConcurrentHashMap<>();
+
+    // Writes the region files of every cache, in the order they're asked for.
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TFCR Biome Cache Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final World world;
+    private final long seed;
+    private final int biomeCount;
+    private final Layer layer;
+
+    // Only known once the world is done loading; see getDirectory.
+    private volatile Path directory;
+
+    // The loaded regions, by ChunkPos.asLong(regionX, regionZ), least recently used first.
+    private final LinkedHashMap<Long, Region> regions = new LinkedHashMap<Long, Region>(MAX_LOADED, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Region> eldest) {
+            if (size() <= MAX_LOADED) {
+                return false;
+            }
+            Region region = eldest.getValue();
+            if (region.dirty) {
+                unwritten.put((long) eldest.getKey(), region);
+                queueWrite(eldest.getKey());
+            }
+            return true;
+        }
+    };
+
+    // Changed regions that were dropped, but aren't written yet, by the same key.
+    private final Long2ObjectOpenHashMap<Region> unwritten = new Long2ObjectOpenHashMap<>();
+
+    // The regions being read from disk, by the same key.
+    private final Long2ObjectOpenHashMap<CompletableFuture<Region>> reading = new Long2ObjectOpenHashMap<>();
+
+    private static class Region {
+        final byte[] biomes = new byte[REGION_SIZE * REGION_SIZE];
+        BitSet chunks = new BitSet(CHUNKS_PER_SIDE * CHUNKS_PER_SIDE);
+        boolean dirty;
+        // Counts changes, so a write can tell whether the region changed while it was being written.
+        int changes;
+
+        boolean hasChunk(int chunkX, int chunkZ) {
+            return chunks.get((chunkX & (CHUNKS_PER_SIDE - 1)) + ((chunkZ & (CHUNKS_PER_SIDE - 1)) * CHUNKS_PER_SIDE));
+        }
+
+        void putChunk(int chunkX, int chunkZ, int[] values) {
+            int originX = (chunkX & (CHUNKS_PER_SIDE - 1)) << 4;
+            int originZ = (chunkZ & (CHUNKS_PER_SIDE - 1)) << 4;
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    int value = values[x + z * 16];
+                    biomes[(originX + x) + ((originZ + z) << REGION_SHIFT)] = (byte) (value >= 0 && value < NO_BIOME ? value : NO_BIOME);
+                }
+            }
+            chunks.set((chunkX & (CHUNKS_PER_SIDE - 1)) + ((chunkZ & (CHUNKS_PER_SIDE - 1)) * CHUNKS_PER_SIDE));
+            dirty = true;
+            changes++;
+        }
+
+        int get(int x, int z) {
+            return biomes[(x & (REGION_SIZE - 1)) + ((z & (REGION_SIZE - 1)) << REGION_SHIFT)] & 0xFF;
+        }
+    }
+
+    private BiomeRegionCache(World world, long seed, int biomeCount, Layer layer) {
+        this.world = world;
+        this.seed = seed;
+        this.biomeCount = biomeCount;
+        this.layer = layer;
+    }
+
+    /**
+     * Opens the biome cache of the given world.
+     * @param layer The layer the cached values come from. Must be block resolution.
+     * @return The cache, or null if it's disabled, or the world isn't a server world.
+     */
+    @Nullable
+    public static BiomeRegionCache open(World world, long seed, Layer layer) {
+        if (!TFCRConfig.biomeRegionCache.get() || !(world instanceof ServerWorld)) {
+            return null;
+        }
+        if (BiomeProviderTFCR.biomes.length >= NO_BIOME) {
+            System.out.println("Too many biomes to cache the biome map on disk: " + BiomeProviderTFCR.biomes.length);
+            return null;
+        }
+        BiomeRegionCache cache = new BiomeRegionCache(world, seed, BiomeProviderTFCR.biomes.length, layer);
+        caches.put(world, cache);
+        return cache;
+    }
+
+    /**
+     * @return The cache of the given world, or null if it doesn't have one.
+     */
+    @Nullable
+    public static BiomeRegionCache get(IWorld world) {
+        return caches.get(world);
+    }
+
+    /**
+     * @return The layer value at the given block column, as {@link Layer#generateValues} would return it.
+     */
+    public int getValue(int x, int z) {
+        int chunkX = x >> 4;
+        int chunkZ = z >> 4;
+        Region region = getRegion(x >> REGION_SHIFT, z >> REGION_SHIFT);
+        synchronized (this) {
+            if (region.hasChunk(chunkX, chunkZ)) {
+                return region.get(x, z);
+            }
+        }
+
+        // The layer is slow, so generate without holding the lock.
+        Long2ObjectOpenHashMap<int[]> generated = new Long2ObjectOpenHashMap<>(1);
+        generated.put(ChunkPos.asLong(chunkX, chunkZ), layer.generateValues(chunkX << 4, chunkZ << 4, 16, 16));
+        region = putChunks(x >> REGION_SHIFT, z >> REGION_SHIFT, generated);
+        synchronized (this) {
+            return region.get(x, z);
+        }
+    }
+
+    /**
+     * @return The layer values in the given area, as {@link Layer#generateValues} would return them.
+     */
+    public int[] getValues(int startX, int startZ, int xSize, int zSize) {
+        int minChunkX = startX >> 4;
+        int minChunkZ = startZ >> 4;
+        int maxChunkX = (startX + xSize - 1) >> 4;
+        int maxChunkZ = (startZ + zSize - 1) >> 4;
+        int minRegionX = minChunkX >> CHUNK_REGION_SHIFT;
+        int minRegionZ = minChunkZ >> CHUNK_REGION_SHIFT;
+        int maxRegionX = maxChunkX >> CHUNK_REGION_SHIFT;
+        int maxRegionZ = maxChunkZ >> CHUNK_REGION_SHIFT;
+
+        // Find the chunks we don't have yet, and generate them without holding the lock.
+        LongArrayList missing = new LongArrayList();
+        for (int regionZ = minRegionZ; regionZ <= maxRegionZ; regionZ++) {
+            for (int regionX = minRegionX; regionX <= maxRegionX; regionX++) {
+                Region region = getRegion(regionX, regionZ);
+                int fromChunkX = Math.max(minChunkX, regionX << CHUNK_REGION_SHIFT);
+                int toChunkX = Math.min(maxChunkX, ((regionX + 1) << CHUNK_REGION_SHIFT) - 1);
+                int fromChunkZ = Math.max(minChunkZ, regionZ << CHUNK_REGION_SHIFT);
+                int toChunkZ = Math.min(maxChunkZ, ((regionZ + 1) << CHUNK_REGION_SHIFT) - 1);
+                synchronized (this) {
+                    for (int chunkZ = fromChunkZ; chunkZ <= toChunkZ; chunkZ++) {
+                        for (int chunkX = fromChunkX; chunkX <= toChunkX; chunkX++) {
+                            if (!region.hasChunk(chunkX, chunkZ)) {
+                                missing.add(ChunkPos.asLong(chunkX, chunkZ));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        Long2ObjectOpenHashMap<int[]> generated = new Long2ObjectOpenHashMap<>(missing.size());
+        for (long chunk : missing) {
+            int chunkX = ChunkPos.getX(chunk);
+            int chunkZ = ChunkPos.getZ(chunk);
+            generated.put(chunk, layer.generateValues(chunkX << 4, chunkZ << 4, 16, 16));
+        }
+
+        int[] values = new int[xSize * zSize];
+        for (int regionZ = minRegionZ; regionZ <= maxRegionZ; regionZ++) {
+            for (int regionX = minRegionX; regionX <= maxRegionX; regionX++) {
+                Region region = generated.isEmpty() ? getRegion(regionX, regionZ) : putChunks(regionX, regionZ, generated);
+
+                // Copy the part of this region inside the requested area.
+                int fromX = Math.max(startX, regionX << REGION_SHIFT);
+                int toX = Math.min(startX + xSize, (regionX + 1) << REGION_SHIFT);
+                int fromZ = Math.max(startZ, regionZ << REGION_SHIFT);
+                int toZ = Math.min(startZ + zSize, (regionZ + 1) << REGION_SHIFT);
+                synchronized (this) {
+                    for (int z = fromZ; z < toZ; z++) {
+                        for (int x = fromX; x < toX; x++) {
+                            values[(x - startX) + (z - startZ) * xSize] = region.get(x, z);
+                        }
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Generates every chunk of the given region that isn't cached yet.
+     * @return True if anything was generated.
+     */
+    public boolean pregenerate(int regionX, int regionZ) {
+        Region region = getRegion(regionX, regionZ);
+        synchronized (this) {
+            if (region.chunks.cardinality() == CHUNKS_PER_SIDE * CHUNKS_PER_SIDE) {
+                return false;
+            }
+        }
+
+        // One request, so it's split into tiles and generated in parallel.
+        int[] values = layer.generateValues(regionX << REGION_SHIFT, regionZ << REGION_SHIFT, REGION_SIZE, REGION_SIZE);
+        Long2ObjectOpenHashMap<int[]> generated = new Long2ObjectOpenHashMap<>(CHUNKS_PER_SIDE * CHUNKS_PER_SIDE);
+        for (int chunkZ = 0; chunkZ < CHUNKS_PER_SIDE; chunkZ++) {
+            for (int chunkX = 0; chunkX < CHUNKS_PER_SIDE; chunkX++) {
+                int[] chunkValues = new int[16 * 16];
+                for (int z = 0; z < 16; z++) {
+                    System.arraycopy(values, (chunkX << 4) + ((chunkZ << 4) + z) * REGION_SIZE, chunkValues, z * 16, 16);
+                }
+                generated.put(ChunkPos.asLong((regionX << CHUNK_REGION_SHIFT) + chunkX, (regionZ << CHUNK_REGION_SHIFT) + chunkZ), chunkValues);
+            }
+        }
+        putChunks(regionX, regionZ, generated);
+        return true;
+    }
+
+    /**
+     * Starts writing every changed region to disk, in the background.
+     */
+    public void save() {
+        LongArrayList changed = new LongArrayList();
+        synchronized (this) {
+            for (Map.Entry<Long, Region> entry : regions.entrySet()) {
+                if (entry.getValue().dirty) {
+                    changed.add((long) entry.getKey());
+                }
+            }
+            changed.addAll(unwritten.keySet());
+        }
+        for (long key : changed) {
+            queueWrite(key);
+        }
+    }
+
+    // Writes every changed region to disk, and waits until it's done.
+    private void flush() {
+        save();
+        try {
+            // Writes run in order, so everything queued so far is done once this is.
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Must hold the lock. The region in memory with the given key, or null if it has to be read.
+    @Nullable
+    private Region getLoadedRegion(long key) {
+        Region region = regions.get(key);
+        if (region == null) {
+            region = unwritten.remove(key);
+            if (region != null) {
+                // Dropped, but not written yet. Still newer than the file.
+                regions.put(key, region);
+            }
+        }
+        return region;
+    }
+
+    // Call without holding the lock. The region might be dropped again right after; reading it
+    // is still fine, but changes have to go through putChunks.
+    private Region getRegion(int regionX, int regionZ) {
+        long key = ChunkPos.asLong(regionX, regionZ);
+        CompletableFuture<Region> future;
+        boolean read = false;
+        synchronized (this) {
+            Region region = getLoadedRegion(key);
+            if (region != null) {
+                return region;
+            }
+            future = reading.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                reading.put(key, future);
+                read = true;
+            }
+        }
+        if (!read) {
+            return future.join();
+        }
+
+        Region region = null;
+        try {
+            region = read(regionX, regionZ);
+        } finally {
+            if (region == null) {
+                region = new Region();
+            }
+            synchronized (this) {
+                reading.remove(key);
+                regions.put(key, region);
+            }
+            future.complete(region);
+        }
+        return region;
+    }
+
+    /**
+     * Stores generated chunks in a region, unless it has them already.
+     * @param generated The values of each chunk, by ChunkPos.asLong. Chunks in other regions are skipped.
+     * @return The region.
+     */
+    private Region putChunks(int regionX, int regionZ, Long2ObjectMap<int[]> generated) {
+        long key = ChunkPos.asLong(regionX, regionZ);
+        while (true) {
+            Region region = getRegion(regionX, regionZ);
+            synchronized (this) {
+                if (getLoadedRegion(key) != region) {
+                    // Dropped and written since we got it, so changing it would be lost. Get it again.
+                    continue;
+                }
+                for (Long2ObjectMap.Entry<int[]> entry : generated.long2ObjectEntrySet()) {
+                    int chunkX = ChunkPos.getX(entry.getLongKey());
+                    int chunkZ = ChunkPos.getZ(entry.getLongKey());
+                    if (chunkX >> CHUNK_REGION_SHIFT == regionX && chunkZ >> CHUNK_REGION_SHIFT == regionZ && !region.hasChunk(chunkX, chunkZ)) {
+                        region.putChunk(chunkX, chunkZ, entry.getValue());
+                    }
+                }
+                return region;
+            }
+        }
+    }
+
+    private void queueWrite(long key) {
+        writer.execute(() -> writeRegion(key));
+    }
+
+    // Runs on the writer thread.
+    private void writeRegion(long key) {
+        Region region;
+        byte[] biomes;
+        long[] chunks;
+        int changes;
+        synchronized (this) {
+            region = regions.get(key);
+            if (region == null) {
+                region = unwritten.get(key);
+            }
+            if (region == null || !region.dirty) {
+                // Written already.
+                return;
+            }
+            biomes = region.biomes.clone();
+            chunks = region.chunks.toLongArray();
+            changes = region.changes;
+        }
+
+        boolean written = write(key, chunks, biomes);
+        synchronized (this) {
+            if (written && region.changes == changes) {
+                region.dirty = false;
+                unwritten.remove(key, region);
+            }
+            // Otherwise it's still dirty, and still in memory, so it's written on the next save.
+        }
+    }
+
+    // The save handler isn't set yet while the world's chunk generator is being made.
+    private Path getDirectory() {
+        if (directory == null) {
+            Path worldDirectory = world.getDimension().getType().getDirectory(((ServerWorld) world).getSaveHandler().getWorldDirectory()).toPath();
+            directory = worldDirectory.resolve("tfcr").resolve("biomes");
+        }
+        return directory;
+    }
+
+    private Path getPath(int regionX, int regionZ) {
+        return getDirectory().resolve("r." + regionX + "." + regionZ + ".bin");
+    }
+
+    @Nullable
+    private Region read(int regionX, int regionZ) {
+        Path path = getPath(regionX, regionZ);
+        if (!Files.exists(path)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (Files.size(path) < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != FORMAT ||
+                    in.readInt() != LayerUtilsTFCR.PROCEDURE_VERSION || in.readLong() != seed || in.readInt() != biomeCount) {
+                // From an older version, or another world. Regenerated as needed.
+                return null;
+            }
+
+            Region region = new Region();
+            DataInputStream data = new DataInputStream(new InflaterInputStream(in));
+            long[] chunks = new long[CHUNKS_PER_SIDE * CHUNKS_PER_SIDE / 64];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = data.readLong();
+            }
+            region.chunks = BitSet.valueOf(chunks);
+            data.readFully(region.biomes);
+            return region;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Failed to read cached biomes from " + path + ", regenerating them.");
+            return null;
+        }
+    }
+
+    private boolean write(long key, long[] chunks, byte[] biomes) {
+        Path path = getPath(ChunkPos.getX(key), ChunkPos.getZ(key));
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeInt(LayerUtilsTFCR.PROCEDURE_VERSION);
+                out.writeLong(seed);
+                out.writeInt(biomeCount);
+
+                DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+                DataOutputStream data = new DataOutputStream(deflater);
+                for (int i = 0; i < CHUNKS_PER_SIDE * CHUNKS_PER_SIDE / 64; i++) {
+                    data.writeLong(i < chunks.length ? chunks[i] : 0);
+                }
+                data.write(biomes);
+                data.flush();
+                deflater.finish();
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("Failed to write cached biomes to " + path + ", keeping them in memory to try again on the next save.");
+            return false;
+        }
+    }
+
+    @SubscribeEvent
+    public static void onWorldSave(WorldEvent.Save event) {
+        BiomeRegionCache cache = caches.get(event.getWorld());
+        if (cache != null) {
+            cache.save();
+        }
+    }
+
+    // Waits for the writes, so nothing is lost when the server stops.
+    @SubscribeEvent
+    public static void onWorldUnload(WorldEvent.Unload event) {
+        BiomeRegionCache cache = caches.remove(event.getWorld());
+        if (cache != null) {
+            cache.flush();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package tfcr.worldgen;
+
+import it.unimi.dsi.fastutil.longs.Long2IntLinkedOpenHashMap;
+import net.minecraft.world.gen.LazyAreaLayerContext;
+import net.minecraft.world.gen.area.LazyArea;
+import net.minecraft.world.gen.layer.traits.IPixelTransformer;
+import tfcr.TFCRConfig;
+
+import javax.annotation.Nullable;
+
+/**
+ * The context for one stage of the biome layer stack; see {@link LayerUtilsTFCR}.
+ *
+ * Vanilla gives the first stages a 25 entry cache, and every stage after that four times
+ * the cache of its parent stage, up to 1024. This does the same by default, but the cache
+ * size of each stage can be overridden with {@link TFCRConfig#layerCacheSizes}. With
+ * {@link TFCRConfig#layerStats} on, every stage also records its cache hits and misses,
+ * and how long it spends computing values; see {@link LayerStats}.
+ *
+ * Stages are identified by their transformer and seed, e.g. "ZoomLayer.NORMAL@1000" (see
+ * {@link LayerGraph#getName}), so changing the order a procedure builds its stages in
+ * doesn't change which settings apply to which. Stages with the same transformer and seed
+ * share their settings and stats. Stages built outside of the {@link LayerGraph} only know
+ * their seed, and are identified by it alone, e.g. "@200".
+ */
+public class LayerContextTFCR extends LazyAreaLayerContext implements LayerGraph.StageContext {
+
+    private static final int DEFAULT_CACHE_SIZE = 25;
+    private static final int MAX_DEFAULT_CACHE_SIZE = 1024;
+
+    // The parent's cache is private, so we keep our own. Same settings as vanilla's.
+    private final Long2IntLinkedOpenHashMap cache = new Long2IntLinkedOpenHashMap(16, 0.25F);
+
+    private final long seedModifier;
+
+    // The name of our stage's transformer, if the LayerGraph told us.
+    @Nullable
+    private String stageName;
+
+    public LayerContextTFCR(long seed, long seedModifier) {
+        super(DEFAULT_CACHE_SIZE, seed, seedModifier);
+        this.seedModifier = seedModifier;
+        cache.defaultReturnValue(Integer.MIN_VALUE);
+    }
+
+    @Override
+    public void setStageName(String name) {
+        this.stageName = name;
+    }
+
+    /**
+     * @return What this stage is called in {@link TFCRConfig#layerCacheSizes} and {@link LayerStats}.
+     */
+    public String getStageKey() {
+        return (stageName == null ? "" : stageName) + "@" + seedModifier;
+    }
+
+    /**
+     * @return The cache size configured for the given stage, or 0 to use the default.
+     */
+    private static int getConfiguredCacheSize(String key) {
+        for (String entry : TFCRConfig.layerCacheSizes.get()) {
+            int split = entry.lastIndexOf('=');
+            if (split > 0 && entry.substring(0, split).trim().equals(key)) {
+                return Integer.parseInt(entry.substring(split + 1).trim());
+            }
+        }
+        return 0;
+    }
+
+    // The three makeArea methods, for stages with no, one and two parents.
+
+    @Override
+    public LazyArea func_212861_a_(IPixelTransformer transformer) {
+        return makeArea(transformer, DEFAULT_CACHE_SIZE);
+    }
+
+    @Override
+    public LazyArea func_212859_a_(IPixelTransformer transformer, LazyArea parent) {
+        return makeArea(transformer, Math.min(MAX_DEFAULT_CACHE_SIZE, getCacheSize(parent) * 4));
+    }
+
+    @Override
+    public LazyArea func_212860_a_(IPixelTransformer transformer, LazyArea firstParent, LazyArea secondParent) {
+        int parentSize = Math.max(getCacheSize(firstParent), getCacheSize(secondParent));
+        return makeArea(transformer, Math.min(MAX_DEFAULT_CACHE_SIZE, parentSize * 4));
+    }
+
+    private LazyArea makeArea(IPixelTransformer transformer, int defaultCacheSize) {
+        String key = getStageKey();
+        int configuredCacheSize = getConfiguredCacheSize(key);
+        int cacheSize = configuredCacheSize > 0 ? configuredCacheSize : defaultCacheSize;
+        if (!TFCRConfig.layerStats.get()) {
+            return new Area(cache, cacheSize, transformer, null);
+        }
+        LayerStats.Stage stats = LayerStats.getStage(key);
+        stats.setCacheSize(cacheSize);
+        return new Area(cache, cacheSize, stats.time(transformer), stats);
+    }
+
+    private static int getCacheSize(LazyArea area) {
+        return area instanceof Area ? ((Area) area).cacheSize : DEFAULT_CACHE_SIZE;
+    }
+
+    // A LazyArea that remembers its cache size, and counts lookups if stats are on.
+    private static class Area extends LazyArea {
+        private final int cacheSize;
+        @Nullable
+        private final LayerStats.Stage stats;
+
+        Area(Long2IntLinkedOpenHashMap cache, int cacheSize, IPixelTransformer transformer, @Nullable LayerStats.Stage stats) {
+            super(cache, cacheSize, transformer);
+            this.cacheSize = cacheSize;
+            this.stats = stats;
+        }
+
+        @Override
+        public int getValue(int x, int z) {
+            if (stats != null) {
+                stats.recordLookup();
+            }
+            return super.getValue(x, z);
+        }
+    }
+}
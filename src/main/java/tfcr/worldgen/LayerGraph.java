@@ -0,0 +1,155 @@
+package tfcr.worldgen;
+
+import net.minecraft.world.gen.IExtendedNoiseRandom;
+import net.minecraft.world.gen.area.IArea;
+import net.minecraft.world.gen.area.IAreaFactory;
+import net.minecraft.world.gen.layer.traits.IAreaTransformer0;
+import net.minecraft.world.gen.layer.traits.IAreaTransformer1;
+import net.minecraft.world.gen.layer.traits.IAreaTransformer2;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * Builds the graph of layers used by one run of a worldgen procedure; see
+ * {@link LayerUtilsTFCR}.
+ *
+ * Layers are added much like calling transformer.apply(contextFactory.apply(seed), parent)
+ * directly, with a few differences:
+ *
+ *  - Every node makes a single area, shared by all of its children. Vanilla makes a
+ *    separate area for each path through the graph, so e.g. the base terrain, which the
+ *    biome, river and mountain chains all start from, was computed once for each.
+ *  - Adding the same transformer, with the same seed, on top of the same parents more
+ *    than once gives back the existing node. None of the current procedures do this;
+ *    it only keeps a future one from computing the same stage twice.
+ *  - Repeating a layer 0 times doesn't add anything.
+ *  - Contexts implementing {@link StageContext} are told the name of their stage, which
+ *    doesn't depend on the order stages are built in.
+ *
+ * None of these change the values generated; see LayerUtilsTFCRTest. The nodes are regular
+ * IAreaFactories, so they can be passed to anything else that builds layers (e.g.
+ * WorldType#getBiomeLayer); see {@link #add(IAreaFactory)}.
+ */
+public class LayerGraph<T extends IArea, C extends IExtendedNoiseRandom<T>> {
+
+    /**
+     * A context that wants to know which stage it's for, e.g. to look up settings for it.
+     */
+    public interface StageContext {
+        /**
+         * Called before the stage's area is made.
+         * @param name The name of the stage's transformer; see {@link #getName(Object)}.
+         */
+        void setStageName(String name);
+    }
+
+    private final LongFunction<C> contextFactory;
+
+    // Every node added so far, by (transformer, seed, parents...).
+    private final Map<List<Object>, Node> nodes = new HashMap<>();
+
+    // A node of the graph. Makes its area the first time it's asked for one.
+    private class Node implements IAreaFactory<T> {
+        private final IAreaFactory<T> factory;
+        private T area;
+
+        Node(IAreaFactory<T> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public T make() {
+            if (area == null) {
+                area = factory.make();
+            }
+            return area;
+        }
+    }
+
+    public LayerGraph(LongFunction<C> contextFactory) {
+        this.contextFactory = contextFactory;
+    }
+
+    /**
+     * The context factory nodes are made with, for code that builds its own layers.
+     */
+    public LongFunction<C> getContextFactory() {
+        return contextFactory;
+    }
+
+    /**
+     * Adds a layer with no parents.
+     */
+    public IAreaFactory<T> source(IAreaTransformer0 transformer, long seed) {
+        return nodes.computeIfAbsent(Arrays.asList(transformer, seed),
+                key -> new Node(transformer.apply(makeContext(transformer, seed))));
+    }
+
+    /**
+     * Adds a layer on top of one parent.
+     */
+    public IAreaFactory<T> apply(IAreaTransformer1 transformer, long seed, IAreaFactory<T> parent) {
+        return nodes.computeIfAbsent(Arrays.asList(transformer, seed, parent),
+                key -> new Node(transformer.apply(makeContext(transformer, seed), parent)));
+    }
+
+    /**
+     * Adds a layer that combines two parents.
+     */
+    public IAreaFactory<T> apply(IAreaTransformer2 transformer, long seed, IAreaFactory<T> first, IAreaFactory<T> second) {
+        return nodes.computeIfAbsent(Arrays.asList(transformer, seed, first, second),
+                key -> new Node(transformer.apply(makeContext(transformer, seed), first, second)));
+    }
+
+    /**
+     * Adds the same layer count times, each on top of the last. Same as
+     * {@link LayerUtilsTFCR#repeat}: the seed goes up by one every time.
+     * @return The last layer added, or parent if count is 0.
+     */
+    public IAreaFactory<T> repeat(IAreaTransformer1 transformer, long seed, IAreaFactory<T> parent, int count) {
+        IAreaFactory<T> factory = parent;
+        for (int i = 0; i < count; i++) {
+            factory = apply(transformer, seed + i, factory);
+        }
+        return factory;
+    }
+
+    /**
+     * Adds layers built outside of the graph, so their area is shared like any other node's.
+     * These are never deduplicated.
+     */
+    public IAreaFactory<T> add(IAreaFactory<T> factory) {
+        return factory instanceof LayerGraph.Node ? factory : new Node(factory);
+    }
+
+    private C makeContext(Object transformer, long seed) {
+        C context = contextFactory.apply(seed);
+        String name = getName(transformer);
+        if (name != null && context instanceof StageContext) {
+            ((StageContext) context).setStageName(name);
+        }
+        return context;
+    }
+
+    /**
+     * @return A name for a transformer that's the same on every run, e.g. "ZoomLayer.NORMAL"
+     * or "IslandLayer", or null for lambdas and anonymous classes, which don't have one.
+     */
+    public static String getName(Object transformer) {
+        if (transformer instanceof Enum) {
+            Enum<?> constant = (Enum<?>) transformer;
+            String className = constant.getDeclaringClass().getSimpleName();
+            // Single instance layers are just their class.
+            return constant.getDeclaringClass().getEnumConstants().length == 1 ? className : className + "." + constant.name();
+        }
+        Class<?> type = transformer.getClass();
+        if (type.isSynthetic() || type.isAnonymousClass()) {
+            return null;
+        }
+        return type.getSimpleName();
+    }
+}
@@ -0,0 +1,103 @@
+package tfcr.worldgen;
+
+import net.minecraft.world.gen.layer.traits.IPixelTransformer;
+import tfcr.TFCRConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache hit rates and compute times for each stage of the biome layer stack, recorded
+ * while {@link TFCRConfig#layerStats} is on. Used to pick cache sizes for
+ * {@link TFCRConfig#layerCacheSizes}. Shown with "/tfcr perf layers".
+ *
+ * Every copy of the layer stack (there's one per world, and one per worker thread; see
+ * {@link tfcr.worldgen.genlayer.Layer}) records into the same stages, as do stages with
+ * the same key; see {@link LayerContextTFCR}.
+ */
+public class LayerStats {
+
+    // By stage key (see LayerContextTFCR#getStageKey), so they're listed in a stable order.
+    private static final Map<String, Stage> stages = new ConcurrentSkipListMap<>();
+
+    // Time spent computing in the stages below the current one, on this thread. Subtracted
+    // from the current stage's time, so each stage only counts its own work.
+    private static final ThreadLocal<long[]> parentNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    public static class Stage {
+        private final String key;
+        private volatile int cacheSize;
+
+        private final AtomicLong lookups = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong nanos = new AtomicLong();
+
+        Stage(String key) {
+            this.key = key;
+        }
+
+        void setCacheSize(int cacheSize) {
+            this.cacheSize = cacheSize;
+        }
+
+        void recordLookup() {
+            lookups.incrementAndGet();
+        }
+
+        /**
+         * Wraps a stage's transformer so every value it computes (i.e. every cache miss)
+         * is counted and timed.
+         */
+        IPixelTransformer time(IPixelTransformer transformer) {
+            return (x, z) -> {
+                long[] parent = parentNanos.get();
+                long outer = parent[0];
+                parent[0] = 0;
+
+                long start = System.nanoTime();
+                int value = transformer.apply(x, z);
+                long elapsed = System.nanoTime() - start;
+
+                misses.incrementAndGet();
+                nanos.addAndGet(elapsed - parent[0]);
+                parent[0] = outer + elapsed;
+                return value;
+            };
+        }
+    }
+
+    static Stage getStage(String key) {
+        return stages.computeIfAbsent(key, Stage::new);
+    }
+
+    public static void reset() {
+        // Contexts hold on to their stages, so clear the counters rather than the stages.
+        for (Stage stage : stages.values()) {
+            stage.lookups.set(0);
+            stage.misses.set(0);
+            stage.nanos.set(0);
+        }
+    }
+
+    /**
+     * @return A human readable summary of every stage, one line per stage.
+     */
+    public static List<String> getReport() {
+        List<String> lines = new ArrayList<>();
+        if (!TFCRConfig.layerStats.get()) {
+            lines.add("Layer stats are off; enable worldgen.layerStats and generate new chunks.");
+        }
+        for (Stage stage : stages.values()) {
+            long lookups = stage.lookups.get();
+            long misses = stage.misses.get();
+            double hitRate = lookups == 0 ? 0 : 100.0 * (lookups - misses) / lookups;
+            lines.add(String.format("%s (cache %d): %d lookups, %.1f%% hits, %d computed, %.3f ms total, %.0f ns each",
+                    stage.key, stage.cacheSize, lookups, hitRate, misses,
+                    stage.nanos.get() / 1e6, misses == 0 ? 0.0 : (double) stage.nanos.get() / misses));
+        }
+        return lines;
+    }
+}
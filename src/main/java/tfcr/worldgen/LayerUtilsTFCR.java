@@ -3,7 +3,6 @@ package tfcr.worldgen;
 import com.google.common.collect.ImmutableList;
 import net.minecraft.world.WorldType;
 import net.minecraft.world.gen.IExtendedNoiseRandom;
-import net.minecraft.world.gen.LazyAreaLayerContext;
 import net.minecraft.world.gen.OverworldGenSettings;
 import net.minecraft.world.gen.area.IArea;
 import net.minecraft.world.gen.area.IAreaFactory;
@@ -11,13 +10,14 @@ import net.minecraft.world.gen.area.LazyArea;
 import net.minecraft.world.gen.layer.SmoothLayer;
 import net.minecraft.world.gen.layer.VoroniZoomLayer;
 import net.minecraft.world.gen.layer.ZoomLayer;
-import net.minecraft.world.gen.layer.traits.IAreaTransformer0;
 import net.minecraft.world.gen.layer.traits.IAreaTransformer1;
+import tfcr.data.TFCRTemperature;
 import tfcr.data.TerrainType;
 import tfcr.worldgen.genlayer.*;
 
 import java.util.Random;
 import java.util.function.LongFunction;
+import java.util.function.Supplier;
 
 /**
  * A class closely based on LayerUtils in vanilla.
@@ -27,6 +27,13 @@ import java.util.function.LongFunction;
 public class LayerUtilsTFCR {
 
 
+    /**
+     * The version of the worldgen procedures. Bump this whenever a change (including
+     * switching the procedure BiomeProviderTFCR uses) changes the biomes generated for a
+     * seed, so biome maps cached on disk are regenerated; see {@link BiomeRegionCache}.
+     */
+    public static final int PROCEDURE_VERSION = 2;
+
     // Constants related to the ordinal of each TerrainType.
     // These act as indices for the placeholder placeholderBiomes.
     public static final int DEEP_OCEAN = TerrainType.DEEP_OCEAN.ordinal();
@@ -133,92 +140,18 @@ public class LayerUtilsTFCR {
      * @return
      */
     private static <T extends IArea, C extends IExtendedNoiseRandom<T>> ImmutableList<IAreaFactory<T>> buildOverworldProcedure(WorldType worldTypeIn, OverworldGenSettings settings, LongFunction<C> contextFactory) {
-        // Basic worldgen. In Vanilla this section handles plains/forest islands and oceans
-        // iareafactory --> baseAreaFactory
-        IAreaFactory<T> baseAreaFactory = IslandLayer.INSTANCE.apply(contextFactory.apply(1L));
-        baseAreaFactory = ZoomLayer.FUZZY.apply(contextFactory.apply(2000L), baseAreaFactory); // Zoom out 2x, fuzz
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(1L), baseAreaFactory); // Add small hill islands
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2001L), baseAreaFactory); // Zoom out 2x, normal
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory);  // Add 3 layers of small hill islands
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(50L), baseAreaFactory);
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(70L), baseAreaFactory);
-        baseAreaFactory = RemoveTooMuchOceanLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory); // If a region is all ocean, there's a 50% chance to flip it to flat.
-        // Skip the ocean-related code, since we don't care about ocean temp yet
-        // GenLayerAddSnow actually adds hilly + mountainous regions. So renamed to AddMountainLayer.
-        baseAreaFactory = AddMountainLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory);
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), baseAreaFactory); // More small hill islands
-        // GenLayerEdge plays a role here. It looks like it messes with temperature (adding deserts/mountains),
-        // and then adds a rare chance of having special placeholderBiomes. We don't care about that.
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2002L), baseAreaFactory); // Zoom out 2x
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2003L), baseAreaFactory); // And again, for a total of 4x
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(4L), baseAreaFactory); // More small hill islands
-        // Don't care about mushroom islands
-        baseAreaFactory = DeepOceanLayer.INSTANCE.apply(contextFactory.apply(4L), baseAreaFactory); // Turn center ocean tiles into deep ocean
-
-        // Custom. Tries to normalize land. 2 passes to potentially fully normalize mountain boundaries.
-        baseAreaFactory = repeat(16L, EqualizeLayer.INSTANCE, baseAreaFactory, 2, contextFactory);
-        baseAreaFactory = repeat(1000L, ZoomLayer.NORMAL, baseAreaFactory, 0, contextFactory); // no-op?
-
-        // River and biome size setup
-        int biomeSize = 4;
-        int riverSize = 4;
-//        if (settings != null) {
-//            biomeSize = settings.getBiomeSize();
-//            riverSize = settings.getRiverSize();
-//        }
+        LayerGraph<T, C> graph = new LayerGraph<>(contextFactory);
 
         // Temp/precip layer. TODO find a way to put in world seed here
 //        IAreaFactory<T> tempPrecipLayer = new TempPrecipLayer(new Random(-1)).apply(contextFactory.apply(17L));
-        IAreaFactory<T> tempPrecipLayer = TempPrecipLayer.INSTANCE.apply(contextFactory.apply(17L));
+        IAreaFactory<T> tempPrecipLayer = graph.source(TempPrecipLayer.INSTANCE, 17L);
         // Zoom out the temp/precip layer to be roughly the size we need. Without scaling the noise,
         // the isotherms would change roughly every block. So if we zoom 10 times total, we get a scale
         // of 2^10 = 1024 blocks between isotherm changes. This gives us roughly the desired biome size.
         // We divide by ~500 in the noisegen, and apply fuzzy zooming on top to get to this value.
-        tempPrecipLayer = ZoomLayer.FUZZY.apply(contextFactory.apply(2004L), tempPrecipLayer);
-
-        // lvt_7_1_ --> riverAreaFactory
-        IAreaFactory<T> riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, baseAreaFactory, 0, contextFactory); // This is a no-op?
-        riverAreaFactory = RiverInitLayer.INSTANCE.apply(contextFactory.apply(100L), riverAreaFactory);
-
-        // Add Biomes using getBiomeLayer. The TFCR variation uses TerrainType-based logic.
-        // lvt_8_1_ --> biomesAreaFactory
-        IAreaFactory<T> biomesAreaFactory = worldTypeIn.getBiomeLayer(baseAreaFactory, settings, contextFactory);
-
-        // lvt_9_1_ --> zoomedRiverInitAreaFactory
-//        IAreaFactory<T> zoomedRiverInitAreaFactory = repeat(1000L, GenLayerZoom.NORMAL, riverAreaFactory, 2, contextFactory);
-        biomesAreaFactory = HillLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Random chance to raise land (modified from orig)
-        riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, riverAreaFactory, 2, contextFactory);
-        riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, riverAreaFactory, riverSize, contextFactory);
-        riverAreaFactory = RiverLayer.INSTANCE.apply(contextFactory.apply(1L), riverAreaFactory); // Add rivers
-        riverAreaFactory = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), riverAreaFactory); // Smooth the region
-
-        // Expand the placeholderBiomes as needed; based on biomeSize parameter
-        for (int zoomIteration = 0; zoomIteration < biomeSize; zoomIteration++) {
-            biomesAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L + zoomIteration), biomesAreaFactory);
-            if (zoomIteration == 0) {
-                biomesAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), biomesAreaFactory); // Add 1 pass of small hill islands
-            }
-
-            if (zoomIteration == 1 || biomeSize == 1) {
-                biomesAreaFactory = ShoreLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Add beaches
-            }
-        }
+        tempPrecipLayer = graph.apply(ZoomLayer.FUZZY, 2004L, tempPrecipLayer);
 
-        biomesAreaFactory = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Smooth after zoom
-        biomesAreaFactory = RiverMaskLayer.INSTANCE.apply(contextFactory.apply(100L), biomesAreaFactory, riverAreaFactory); // Mix in the rivers
-
-        // Apply the temp/precip map on top.
-        biomesAreaFactory = TempPrecipMaskLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory, tempPrecipLayer);
-
-        // No ocean temperature mixing at this time
-
-        // Voronoi zoom out
-        IAreaFactory<T> voronoiZoomed = VoroniZoomLayer.INSTANCE.apply(contextFactory.apply(10L), biomesAreaFactory);
-
-        // TODO Add a mask layer for applying temp/precip transforms. Similar to RiverMaskLayer, but
-        //  using a Perlin noise based map that's been fuzzy zoomed out to the right scale.
-
-        return ImmutableList.of(biomesAreaFactory, voronoiZoomed, biomesAreaFactory);
+        return buildVanillaStyleProcedure(graph, worldTypeIn, settings, tempPrecipLayer);
     }
 
     /**
@@ -230,31 +163,30 @@ public class LayerUtilsTFCR {
      * about worldgen. Other biomes will slowly be mixed in as content is added.
      */
     private static <T extends IArea, C extends IExtendedNoiseRandom<T>> ImmutableList<IAreaFactory<T>> buildSimpleProcedure(WorldType worldTypeIn, OverworldGenSettings settings, LongFunction<C> contextFactory) {
+        LayerGraph<T, C> graph = new LayerGraph<>(contextFactory);
+
+        // This lambda replaces TempPrecipLayer, which would normally fill the world with random temp/precip values.
+        // "(0 << 8) | 35" maps to a temperature of 0, precip of 35. This means that we get a world that is filled
+        // with TemperateConiferousBiome biomes (and all its height variations).
+        IAreaFactory<T> tempPrecipLayer = graph.source((context, x, z) -> (0 << 8) | 35, 17L);
+
+        return buildVanillaStyleProcedure(graph, worldTypeIn, settings, tempPrecipLayer);
+    }
+
+    // The rest of buildOverworldProcedure and buildSimpleProcedure, which only differ in their temp/precip layer.
+    private static <T extends IArea, C extends IExtendedNoiseRandom<T>> ImmutableList<IAreaFactory<T>> buildVanillaStyleProcedure(LayerGraph<T, C> graph, WorldType worldTypeIn, OverworldGenSettings settings, IAreaFactory<T> tempPrecipLayer) {
         // Basic worldgen. In Vanilla this section handles plains/forest islands and oceans
         // iareafactory --> baseAreaFactory
-        IAreaFactory<T> baseAreaFactory = IslandLayer.INSTANCE.apply(contextFactory.apply(1L));
-        baseAreaFactory = ZoomLayer.FUZZY.apply(contextFactory.apply(2000L), baseAreaFactory); // Zoom out 2x, fuzz
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(1L), baseAreaFactory); // Add small hill islands
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2001L), baseAreaFactory); // Zoom out 2x, normal
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory);  // Add 3 layers of small hill islands
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(50L), baseAreaFactory);
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(70L), baseAreaFactory);
-        baseAreaFactory = RemoveTooMuchOceanLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory); // If a region is all ocean, there's a 50% chance to flip it to flat.
+        IAreaFactory<T> baseAreaFactory = addIslands(graph);
         // Skip the ocean-related code, since we don't care about ocean temp yet
         // GenLayerAddSnow actually adds hilly + mountainous regions. So renamed to AddMountainLayer.
-        baseAreaFactory = AddMountainLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory);
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), baseAreaFactory); // More small hill islands
+        baseAreaFactory = graph.apply(AddMountainLayer.INSTANCE, 2L, baseAreaFactory);
         // GenLayerEdge plays a role here. It looks like it messes with temperature (adding deserts/mountains),
         // and then adds a rare chance of having special placeholderBiomes. We don't care about that.
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2002L), baseAreaFactory); // Zoom out 2x
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2003L), baseAreaFactory); // And again, for a total of 4x
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(4L), baseAreaFactory); // More small hill islands
-        // Don't care about mushroom islands
-        baseAreaFactory = DeepOceanLayer.INSTANCE.apply(contextFactory.apply(4L), baseAreaFactory); // Turn center ocean tiles into deep ocean
+        baseAreaFactory = addCoast(graph, baseAreaFactory);
 
         // Custom. Tries to normalize land. 2 passes to potentially fully normalize mountain boundaries.
-        baseAreaFactory = repeat(16L, EqualizeLayer.INSTANCE, baseAreaFactory, 2, contextFactory);
-        baseAreaFactory = repeat(1000L, ZoomLayer.NORMAL, baseAreaFactory, 0, contextFactory); // no-op?
+        baseAreaFactory = graph.repeat(EqualizeLayer.INSTANCE, 16L, baseAreaFactory, 2);
 
         // River and biome size setup
         int biomeSize = 4;
@@ -265,52 +197,45 @@ public class LayerUtilsTFCR {
 //        }
 
         // lvt_7_1_ --> riverAreaFactory
-        IAreaFactory<T> riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, baseAreaFactory, 0, contextFactory); // This is a no-op?
-        riverAreaFactory = RiverInitLayer.INSTANCE.apply(contextFactory.apply(100L), riverAreaFactory);
+        IAreaFactory<T> riverAreaFactory = addRivers(graph, baseAreaFactory, riverSize, 100L, 1000L, 1L, 1000L);
 
         // Add Biomes using getBiomeLayer. The TFCR variation uses TerrainType-based logic.
         // lvt_8_1_ --> biomesAreaFactory
-        IAreaFactory<T> biomesAreaFactory = worldTypeIn.getBiomeLayer(baseAreaFactory, settings, contextFactory);
-
-        // lvt_9_1_ --> zoomedRiverInitAreaFactory
-//        IAreaFactory<T> zoomedRiverInitAreaFactory = repeat(1000L, GenLayerZoom.NORMAL, riverAreaFactory, 2, contextFactory);
-        biomesAreaFactory = HillLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Random chance to raise land (modified from orig)
-        riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, riverAreaFactory, 2, contextFactory);
-        riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, riverAreaFactory, riverSize, contextFactory);
-        riverAreaFactory = RiverLayer.INSTANCE.apply(contextFactory.apply(1L), riverAreaFactory); // Add rivers
-        riverAreaFactory = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), riverAreaFactory); // Smooth the region
+        IAreaFactory<T> biomesAreaFactory = graph.add(worldTypeIn.getBiomeLayer(baseAreaFactory, settings, graph.getContextFactory()));
+        biomesAreaFactory = graph.apply(HillLayer.INSTANCE, 1000L, biomesAreaFactory); // Random chance to raise land (modified from orig)
 
         // Expand the placeholderBiomes as needed; based on biomeSize parameter
         for (int zoomIteration = 0; zoomIteration < biomeSize; zoomIteration++) {
-            biomesAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L + zoomIteration), biomesAreaFactory);
+            biomesAreaFactory = graph.apply(ZoomLayer.NORMAL, 1000L + zoomIteration, biomesAreaFactory);
             if (zoomIteration == 0) {
-                biomesAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), biomesAreaFactory); // Add 1 pass of small hill islands
+                biomesAreaFactory = graph.apply(AddIslandLayer.INSTANCE, 3L, biomesAreaFactory); // Add 1 pass of small hill islands
             }
 
             if (zoomIteration == 1 || biomeSize == 1) {
-                biomesAreaFactory = ShoreLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Add beaches
+                biomesAreaFactory = graph.apply(ShoreLayer.INSTANCE, 1000L, biomesAreaFactory); // Add beaches
             }
         }
 
-        biomesAreaFactory = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Smooth after zoom
-        biomesAreaFactory = RiverMaskLayer.INSTANCE.apply(contextFactory.apply(100L), biomesAreaFactory, riverAreaFactory); // Mix in the rivers
-
-        // This lambda replaces TempPrecipLayer, which would normally fill the world with random temp/precip values.
-        // "(0 << 8) | 35" maps to a temperature of 0, precip of 35. This means that we get a world that is filled
-        // with TemperateConiferousBiome biomes (and all its height variations).
-        IAreaFactory<T> tempPrecipLayer = ((IAreaTransformer0) (context, x, z) -> (0 << 8) | 35).apply(contextFactory.apply(17L));
+        biomesAreaFactory = graph.apply(SmoothLayer.INSTANCE, 1000L, biomesAreaFactory); // Smooth after zoom
+        biomesAreaFactory = graph.apply(RiverMaskLayer.INSTANCE, 100L, biomesAreaFactory, riverAreaFactory); // Mix in the rivers
 
         // Apply the temp/precip map on top.
-        biomesAreaFactory = TempPrecipMaskLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory, tempPrecipLayer);
+        biomesAreaFactory = graph.apply(TempPrecipMaskLayer.INSTANCE, 1000L, biomesAreaFactory, tempPrecipLayer);
 
         // No ocean temperature mixing at this time
-        IAreaFactory<T> voronoiZoomed = VoroniZoomLayer.INSTANCE.apply(contextFactory.apply(10L), biomesAreaFactory);
+
+        // Voronoi zoom out
+        IAreaFactory<T> voronoiZoomed = graph.apply(VoroniZoomLayer.INSTANCE, 10L, biomesAreaFactory);
+
+        // TODO Add a mask layer for applying temp/precip transforms. Similar to RiverMaskLayer, but
+        //  using a Perlin noise based map that's been fuzzy zoomed out to the right scale.
 
         return ImmutableList.of(biomesAreaFactory, voronoiZoomed, biomesAreaFactory);
     }
 
     // WIP rebuilding this method from the ground up to make sure it works right
     private static <T extends IArea, C extends IExtendedNoiseRandom<T>> ImmutableList<IAreaFactory<T>> buildSimpleProcedure2(WorldType worldTypeIn, OverworldGenSettings settings, LongFunction<C> contextFactory) {
+        LayerGraph<T, C> graph = new LayerGraph<>(contextFactory);
 
         // Basic setup.
         // This generates islands covering 10% of the land at zoom level 0,
@@ -318,142 +243,154 @@ public class LayerUtilsTFCR {
         // There is a final pass with a 50% chance to turn a fully surrounded
         // ocean tile into a land tile (RemoveTooMuchOcean).
         // Flat, SmallHill, Ocean
-        IAreaFactory<T> baseAreaFactory = IslandLayer.INSTANCE.apply(contextFactory.apply(1L));
-        baseAreaFactory = ZoomLayer.FUZZY.apply(contextFactory.apply(2000L), baseAreaFactory); // Zoom out 2x, fuzz
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(1L), baseAreaFactory); // Add small hill islands
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2001L), baseAreaFactory); // Zoom out 2x, normal
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory);  // Add 3 layers of small hill islands
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(50L), baseAreaFactory);
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(70L), baseAreaFactory);
-        baseAreaFactory = RemoveTooMuchOceanLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory); // If a region is all ocean, there's a 50% chance to flip it to flat.
+        IAreaFactory<T> baseAreaFactory = addIslands(graph);
 
         // Next, we have a chance to add mountains and more islands. Any land
         // tile has a chance to turn into either big hills or a mountain.
-        // Flat, SmallHill, Ocean
-//        baseAreaFactory = AddMountainLayer.INSTANCE.apply(contextFactory.apply(2L), baseAreaFactory);
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), baseAreaFactory); // More small hill islands
-
-        // Zoom out twice to level 4, and apply some smaller islands afterwards.
-        // Flat, SmallHill, Ocean
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2002L), baseAreaFactory); // Zoom out 2x
-        baseAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(2003L), baseAreaFactory); // And again, for a total of 4x
-        baseAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(4L), baseAreaFactory); // More small hill islands
-
+        // Then, zoom out twice to level 4, and apply some smaller islands afterwards.
         // Any central ocean tiles get replaced with deep ocean at this point.
         // Flat, SmallHill, Ocean, DeepOcean
-        baseAreaFactory = DeepOceanLayer.INSTANCE.apply(contextFactory.apply(4L), baseAreaFactory); // Turn center ocean tiles into deep ocean
+//        baseAreaFactory = graph.apply(AddMountainLayer.INSTANCE, 2L, baseAreaFactory);
+        baseAreaFactory = addCoast(graph, baseAreaFactory);
 
         // Custom: at this point, turn flat -> small hills if 3/4 surrounded
         // This was moved to AFTER the two zooms to provide a fairly thin coastal border
-        baseAreaFactory = RaiseInlandLayer.INSTANCE.apply(contextFactory.apply(5L), baseAreaFactory);
+        baseAreaFactory = graph.apply(RaiseInlandLayer.INSTANCE, 5L, baseAreaFactory);
 
         // This maps to WorldTypeTFCR#getBiomeLayer, which is mostly a pass-through
         // It calls BiomeLayer, which is a no-op (at this time), then
         // it zooms out two more times (to level 6), and finally calls BiomeEdgeLayer.
-        IAreaFactory<T> biomesAreaFactory = worldTypeIn.getBiomeLayer(baseAreaFactory, settings, contextFactory);
-//        biomesAreaFactory = HillLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Random chance to raise land (modified from orig)
+        IAreaFactory<T> biomesAreaFactory = graph.add(worldTypeIn.getBiomeLayer(baseAreaFactory, settings, graph.getContextFactory()));
+//        biomesAreaFactory = graph.apply(HillLayer.INSTANCE, 1000L, biomesAreaFactory); // Random chance to raise land (modified from orig)
 
-        // This is the big zoom. We do an additional 4 zoom layers, with beach/shores
-        // being generated at iteration 1 of this loop. Zoom level is now 10.
-//        for (int zoomIteration = 0; zoomIteration < biomeSize; zoomIteration++) {
-//            biomesAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L + zoomIteration), biomesAreaFactory);
-//            if (zoomIteration == 0) {
-//                biomesAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), biomesAreaFactory); // Add 1 pass of small hill islands
-//            }
-//
-//            if (zoomIteration == 1 || biomeSize == 1) {
-//                biomesAreaFactory = ShoreLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Add beaches
-//            }
-//        }
+        // Variable used in Vanilla. Affects how large the rivers are.
+        int riverSize = 4;
 
-        // Initialize and create mountains
-        IAreaFactory<T> mountainAreaFactory = repeat(2000L, ZoomLayer.NORMAL, baseAreaFactory, 0, contextFactory); // This is a no-op?
-        mountainAreaFactory = RiverInitLayer.INSTANCE.apply(contextFactory.apply(200L), mountainAreaFactory);
-        mountainAreaFactory = repeat(1001L, ZoomLayer.NORMAL, mountainAreaFactory, 2, contextFactory);
-        mountainAreaFactory = repeat(1001L, ZoomLayer.NORMAL, mountainAreaFactory, 4, contextFactory);
-        mountainAreaFactory = RiverLayer.INSTANCE.apply(contextFactory.apply(2L), mountainAreaFactory); // Add rivers
-        mountainAreaFactory = SmoothLayer.INSTANCE.apply(contextFactory.apply(2000L), mountainAreaFactory); // Smooth the region
+        // Initialize and create mountains. Mountain ranges are made the same way as rivers,
+        // with different seeds.
+        IAreaFactory<T> mountainAreaFactory = addRivers(graph, baseAreaFactory, riverSize, 200L, 1001L, 2L, 2000L);
 
+        // This is the big zoom. We do an additional 4 zoom layers, with beach/shores
+        // being generated at iteration 1 of this loop. Zoom level is now 10.
         // Manually unrolled big zoom
-        biomesAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L + 0L), biomesAreaFactory);
+        biomesAreaFactory = graph.apply(ZoomLayer.NORMAL, 1000L + 0L, biomesAreaFactory);
         // then chance to turn small hills -> flat if 4/4 surrounded
-        biomesAreaFactory = RaiseInlandHillLayer.INSTANCE.apply(contextFactory.apply(6L), biomesAreaFactory);
+        biomesAreaFactory = graph.apply(RaiseInlandHillLayer.INSTANCE, 6L, biomesAreaFactory);
         // then repeat, small hills -> big hills if 3/4 surrounded
         // chance to turn area surrounded by big hills -> flat if 3/4 surrounded ?
         // TODO look into making another terrain type for highland plains, if desired
         //  (also maybe look into making valleys surrounded by mountains)
-//        biomesAreaFactory = HighlandPlains.INSTANCE.apply(contextFactory.apply(7L), biomesAreaFactory);
+//        biomesAreaFactory = graph.apply(HighlandPlains.INSTANCE, 7L, biomesAreaFactory);
         // Add one layer of small islands
-        biomesAreaFactory = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), biomesAreaFactory); // Add 1 pass of small hill islands
-        biomesAreaFactory = MountainMaskLayer.INSTANCE.apply(contextFactory.apply(200L), biomesAreaFactory, mountainAreaFactory); // Mix in mountains
-        biomesAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L + 1L), biomesAreaFactory);
-        biomesAreaFactory = ShoreLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Add beaches
-        biomesAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L + 2L), biomesAreaFactory);
-        biomesAreaFactory = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L + 3L), biomesAreaFactory);
-
-        // Variable used in Vanilla. Affects how large the rivers are.
-        int riverSize = 4;
+        biomesAreaFactory = graph.apply(AddIslandLayer.INSTANCE, 3L, biomesAreaFactory); // Add 1 pass of small hill islands
+        biomesAreaFactory = graph.apply(MountainMaskLayer.INSTANCE, 200L, biomesAreaFactory, mountainAreaFactory); // Mix in mountains
+        biomesAreaFactory = graph.apply(ZoomLayer.NORMAL, 1000L + 1L, biomesAreaFactory);
+        biomesAreaFactory = graph.apply(ShoreLayer.INSTANCE, 1000L, biomesAreaFactory); // Add beaches
+        biomesAreaFactory = graph.apply(ZoomLayer.NORMAL, 1000L + 2L, biomesAreaFactory);
+        biomesAreaFactory = graph.apply(ZoomLayer.NORMAL, 1000L + 3L, biomesAreaFactory);
 
         // Initialize and create rivers
-        IAreaFactory<T> riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, baseAreaFactory, 0, contextFactory); // This is a no-op?
-        riverAreaFactory = RiverInitLayer.INSTANCE.apply(contextFactory.apply(100L), riverAreaFactory);
-        riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, riverAreaFactory, 2, contextFactory);
-        riverAreaFactory = repeat(1000L, ZoomLayer.NORMAL, riverAreaFactory, riverSize, contextFactory);
-        riverAreaFactory = RiverLayer.INSTANCE.apply(contextFactory.apply(1L), riverAreaFactory); // Add rivers
-        riverAreaFactory = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), riverAreaFactory); // Smooth the region
+        IAreaFactory<T> riverAreaFactory = addRivers(graph, baseAreaFactory, riverSize, 100L, 1000L, 1L, 1000L);
 
         // We smooth the biome map, and mix in the rivers at this point.
-        biomesAreaFactory = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory); // Smooth after zoom
-        biomesAreaFactory = RiverMaskLayer.INSTANCE.apply(contextFactory.apply(100L), biomesAreaFactory, riverAreaFactory); // Mix in the rivers
+        biomesAreaFactory = graph.apply(SmoothLayer.INSTANCE, 1000L, biomesAreaFactory); // Smooth after zoom
+        biomesAreaFactory = graph.apply(RiverMaskLayer.INSTANCE, 100L, biomesAreaFactory, riverAreaFactory); // Mix in the rivers
 
         // This lambda replaces TempPrecipLayer, which would normally fill the world with random temp/precip values.
         // "(0 << 8) | 35" maps to a temperature of 0, precip of 35. This means that we get a world that is filled
         // with TemperateConiferousBiome biomes (and all its height variations).
-//        IAreaFactory<T> tempPrecipLayer = ((IAreaTransformer0) (context, x, z) -> (100 << 8) | 35).apply(contextFactory.apply(17L));
-        IAreaFactory<T> tempPrecipLayer = TempPrecipLayer.INSTANCE.apply(contextFactory.apply(17L));
+//        IAreaFactory<T> tempPrecipLayer = graph.source((context, x, z) -> (100 << 8) | 35, 17L);
+        IAreaFactory<T> tempPrecipLayer = graph.source(TempPrecipLayer.INSTANCE, 17L);
         // Zoom out the temp/precip layer to be roughly the size we need. Without scaling the noise,
         // the isotherms would change roughly every block. So if we zoom 10 times total, we get a scale
         // of 2^10 = 1024 blocks between isotherm changes. This gives us roughly the desired biome size.
         // We divide by ~500 in the noisegen, and apply fuzzy zooming on top to get to this value.
-//        tempPrecipLayer = ZoomLayer.FUZZY.apply(contextFactory.apply(2004L), tempPrecipLayer);
+//        tempPrecipLayer = graph.apply(ZoomLayer.FUZZY, 2004L, tempPrecipLayer);
 
         // Apply the temp/precip map on top.
         // TODO: look into modifying this to account for the terrain somewhat.
         // e.g., oceans are more humid, so deserts shouldn't be adjacent to ocean.
         // similarly, mountains (and taller hills) tend to be colder, so it might be cool
         // to apply "microbiomes" that are dependent upon height (either terrain type based, or generated)
-        biomesAreaFactory = TempPrecipMaskLayer.INSTANCE.apply(contextFactory.apply(1000L), biomesAreaFactory, tempPrecipLayer);
+        biomesAreaFactory = graph.apply(TempPrecipMaskLayer.INSTANCE, 1000L, biomesAreaFactory, tempPrecipLayer);
 
         // No ocean temperature mixing at this time
-        IAreaFactory<T> voronoiZoomed = VoroniZoomLayer.INSTANCE.apply(contextFactory.apply(10L), biomesAreaFactory);
+        IAreaFactory<T> voronoiZoomed = graph.apply(VoroniZoomLayer.INSTANCE, 10L, biomesAreaFactory);
 
         return ImmutableList.of(biomesAreaFactory, voronoiZoomed, biomesAreaFactory);
     }
 
+    // The island stages every procedure starts with. Flat and small hill islands in the
+    // ocean, at zoom level 2.
+    private static <T extends IArea, C extends IExtendedNoiseRandom<T>> IAreaFactory<T> addIslands(LayerGraph<T, C> graph) {
+        IAreaFactory<T> baseAreaFactory = graph.source(IslandLayer.INSTANCE, 1L);
+        baseAreaFactory = graph.apply(ZoomLayer.FUZZY, 2000L, baseAreaFactory); // Zoom out 2x, fuzz
+        baseAreaFactory = graph.apply(AddIslandLayer.INSTANCE, 1L, baseAreaFactory); // Add small hill islands
+        baseAreaFactory = graph.apply(ZoomLayer.NORMAL, 2001L, baseAreaFactory); // Zoom out 2x, normal
+        baseAreaFactory = graph.apply(AddIslandLayer.INSTANCE, 2L, baseAreaFactory);  // Add 3 layers of small hill islands
+        baseAreaFactory = graph.apply(AddIslandLayer.INSTANCE, 50L, baseAreaFactory);
+        baseAreaFactory = graph.apply(AddIslandLayer.INSTANCE, 70L, baseAreaFactory);
+        baseAreaFactory = graph.apply(RemoveTooMuchOceanLayer.INSTANCE, 2L, baseAreaFactory); // If a region is all ocean, there's a 50% chance to flip it to flat.
+        return baseAreaFactory;
+    }
+
+    // More islands, two more zooms (to level 4), and deep ocean in the middle of oceans.
+    private static <T extends IArea, C extends IExtendedNoiseRandom<T>> IAreaFactory<T> addCoast(LayerGraph<T, C> graph, IAreaFactory<T> baseAreaFactory) {
+        baseAreaFactory = graph.apply(AddIslandLayer.INSTANCE, 3L, baseAreaFactory); // More small hill islands
+        baseAreaFactory = graph.apply(ZoomLayer.NORMAL, 2002L, baseAreaFactory); // Zoom out 2x
+        baseAreaFactory = graph.apply(ZoomLayer.NORMAL, 2003L, baseAreaFactory); // And again, for a total of 4x
+        baseAreaFactory = graph.apply(AddIslandLayer.INSTANCE, 4L, baseAreaFactory); // More small hill islands
+        // Don't care about mushroom islands
+        baseAreaFactory = graph.apply(DeepOceanLayer.INSTANCE, 4L, baseAreaFactory); // Turn center ocean tiles into deep ocean
+        return baseAreaFactory;
+    }
+
+    /**
+     * Adds a river network on top of the base terrain: random noise, zoomed in
+     * 2 + riverSize times, with rivers along the edges of the noise, smoothed.
+     * @param initSeed The seed of the noise (RiverInitLayer).
+     * @param zoomSeed The seed of the first zoom. Every zoom after that adds 1.
+     * @param riverSeed The seed of the RiverLayer.
+     * @param smoothSeed The seed of the SmoothLayer.
+     */
+    private static <T extends IArea, C extends IExtendedNoiseRandom<T>> IAreaFactory<T> addRivers(LayerGraph<T, C> graph, IAreaFactory<T> baseAreaFactory, int riverSize, long initSeed, long zoomSeed, long riverSeed, long smoothSeed) {
+        IAreaFactory<T> riverAreaFactory = graph.apply(RiverInitLayer.INSTANCE, initSeed, baseAreaFactory);
+        riverAreaFactory = graph.repeat(ZoomLayer.NORMAL, zoomSeed, riverAreaFactory, 2);
+        riverAreaFactory = graph.repeat(ZoomLayer.NORMAL, zoomSeed, riverAreaFactory, riverSize);
+        riverAreaFactory = graph.apply(RiverLayer.INSTANCE, riverSeed, riverAreaFactory); // Add rivers
+        riverAreaFactory = graph.apply(SmoothLayer.INSTANCE, smoothSeed, riverAreaFactory); // Smooth the region
+        return riverAreaFactory;
+    }
+
     // Directly copied from LayerUtils
     public static Layer[] buildOverworldProcedure(long seed, WorldType typeIn, OverworldGenSettings settings) {
         int i = 25;
-        ImmutableList<IAreaFactory<LazyArea>> immutablelist = buildOverworldProcedure(typeIn, settings, (p_215737_2_) -> {
-            return new LazyAreaLayerContext(25, seed, p_215737_2_);
-        });
-        Layer genlayer = new Layer(immutablelist.get(0));
-        Layer genlayer1 = new Layer(immutablelist.get(1));
-        Layer genlayer2 = new Layer(immutablelist.get(2));
-        return new Layer[]{genlayer, genlayer1, genlayer2};
+        TFCRTemperature.initialize(seed);
+        return makeLayers(() -> buildOverworldProcedure(typeIn, settings, contextFactory(seed)));
     }
 
     // Similar to buildOverworldProcedure, but calls buildSimpleProcedure instead.
     public static Layer[] buildSimpleProcedure(long seed, WorldType typeIn, OverworldGenSettings settings) {
         int i = 1;
-        int[] aint = new int[1];
+        TFCRTemperature.initialize(seed);
         // TODO currently using the WIP simpleProcedure2
-        ImmutableList<IAreaFactory<LazyArea>> immutablelist = buildSimpleProcedure2(typeIn, settings, (p_215737_2_) -> {
-            ++aint[0];
-            return new LazyAreaLayerContext(25, seed, p_215737_2_);
-        });
-        Layer genlayer = new Layer(immutablelist.get(0));
-        Layer genlayer1 = new Layer(immutablelist.get(1));
-        Layer genlayer2 = new Layer(immutablelist.get(2));
-        return new Layer[]{genlayer, genlayer1, genlayer2};
+        return makeLayers(() -> buildSimpleProcedure2(typeIn, settings, contextFactory(seed)));
+    }
+
+    // Makes the contexts for one run of a procedure.
+    private static LongFunction<LayerContextTFCR> contextFactory(long seed) {
+        return seedModifier -> new LayerContextTFCR(seed, seedModifier);
+    }
+
+    // Wraps each of the procedure's layer chains in a Layer. The procedure is run again for
+    // every thread generating tiles in parallel, so each one has its own copy of the chain.
+    private static Layer[] makeLayers(Supplier<ImmutableList<IAreaFactory<LazyArea>>> procedure) {
+        ImmutableList<IAreaFactory<LazyArea>> immutablelist = procedure.get();
+        Layer[] layers = new Layer[immutablelist.size()];
+        for (int i = 0; i < layers.length; i++) {
+            int index = i;
+            layers[i] = new Layer(immutablelist.get(i), () -> procedure.get().get(index));
+        }
+        return layers;
     }
 }
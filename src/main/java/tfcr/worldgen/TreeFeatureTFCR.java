@@ -8,13 +8,13 @@ import net.minecraft.world.IWorld;
 import net.minecraft.world.gen.ChunkGenerator;
 import net.minecraft.world.gen.GenerationSettings;
 import net.minecraft.world.gen.feature.Feature;
-import net.minecraft.world.gen.feature.template.PlacementSettings;
-import net.minecraft.world.gen.feature.template.Template;
 import net.minecraftforge.common.IPlantable;
 import tfcr.tileentity.TreeTileEntity;
+import tfcr.utils.CompiledTreeTemplate;
+import tfcr.utils.DirectTreeBlockWriter;
 import tfcr.utils.TemplateHelper;
+import tfcr.utils.TreeTemplateCache;
 
-import java.util.List;
 import java.util.Random;
 import java.util.function.Function;
 
@@ -32,35 +32,37 @@ public class TreeFeatureTFCR extends Feature<TreeFeatureConfig> {
 
 //        System.out.println("Generation? called");
 
-        // TODO readd me
-        String templateName = TemplateHelper.getTreeTemplateLocation(config.getWoodType(), config.getAge());
-        Template template = TemplateHelper.getTemplate(worldIn.getWorld(), templateName);
+        // Trees can't generate until their templates have been loaded.
+        TreeTemplateCache.awaitReady();
+
+        int variant = rand.nextInt(CompiledTreeTemplate.VARIANTS);
+        CompiledTreeTemplate template = TreeTemplateCache.get(worldIn, config.getWoodType(), config.getAge(), variant);
 
         if (template == null) {
-            System.out.println("Failed to get template: " + templateName);
+            System.out.println("Failed to get template: " + TemplateHelper.getTreeTemplateLocation(config.getWoodType(), config.getAge()));
             return false;
         }
 
-        BlockPos size = template.getSize();
-        BlockPos center = new BlockPos(size.getX() / 2, 0, size.getZ() / 2);
+        // The trunk of the tree goes at the pos + the center offset.
+        BlockPos root = pos.add(template.getCenter());
 
-        // Check that the placing block is valid. It's the pos + the center offset.
-        Block placingBlock = worldIn.getBlockState(pos.add(center).down()).getBlock();
-        Block baseBlock = worldIn.getBlockState(pos.add(center)).getBlock();
+        // Check that the placing block is valid.
+        Block placingBlock = worldIn.getBlockState(root.down()).getBlock();
+        Block baseBlock = worldIn.getBlockState(root).getBlock();
         if (!(placingBlock instanceof SnowyDirtBlock)) {
             return false;
         }
-        if (!(worldIn.isAirBlock(pos.add(center))) && !(baseBlock instanceof IPlantable)) {
+        if (!(worldIn.isAirBlock(root)) && !(baseBlock instanceof IPlantable)) {
             return false;
         }
 
         // TODO: This works, but because worldgen is done in parallel, there's no way to tell if we're growing into
         //  a neighboring tree. Either use external storage, or just don't let trees get too close.
         // (could create all trees in one place() call, and keep track of all leaves generated per chunk?)
-        PlacementSettings settings = new PlacementSettings().setCenterOffset(center);
-        settings.addProcessor(new TreeTileEntity.TemplateProcessorTrees(config.getWoodType()));
+        // TreeFootprintIndex only knows about loaded trees, so it can't be used here.
 //        System.out.println("Template adding blocks to world");
-        template.addBlocksToWorld(worldIn, pos, settings, 2);
+        TreeTileEntity.placeTree(new DirectTreeBlockWriter(worldIn, 2), root, template, config.getWoodType());
+        TreeTileEntity.initializeRoot(worldIn, root, config.getWoodType(), config.getAge(), variant);
 
 
         return true;
@@ -38,7 +38,9 @@ public class WorldTypeTFCR extends WorldType {
         OverworldGenSettings overworldGenSettings = new OverworldGenSettings();
         OverworldBiomeProviderSettings obpSettings = new OverworldBiomeProviderSettings().setGeneratorSettings(overworldGenSettings).setWorldInfo(world.getWorldInfo());
 
-        return new ChunkGeneratorTFCR(world, new BiomeProviderTFCR(obpSettings), overworldGenSettings);
+        BiomeProviderTFCR biomeProvider = new BiomeProviderTFCR(obpSettings);
+        biomeProvider.openRegionCache(world);
+        return new ChunkGeneratorTFCR(world, biomeProvider, overworldGenSettings);
     }
 
     /**
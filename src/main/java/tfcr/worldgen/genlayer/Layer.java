@@ -9,6 +9,12 @@ import net.minecraft.world.gen.area.LazyArea;
 import tfcr.worldgen.BiomeProviderTFCR;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Supplier;
 
 import static net.minecraft.world.biome.Biome.LOGGER;
 
@@ -23,29 +29,110 @@ import static net.minecraft.world.biome.Biome.LOGGER;
  * sometimes technical biomes, like River or Beach).
  */
 public class Layer {
+
+    /**
+     * Requests bigger than this on either side are split into tiles of this size, and
+     * generated in parallel; see {@link #generateValues}.
+     */
+    public static final int TILE_SIZE = 256;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), p -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        thread.setName("TFCR Layer Worker-" + thread.getPoolIndex());
+        return thread;
+    }, null, false);
+
 //    private final IAreaFactory<LazyArea> lazyAreaFactory;
     private final LazyArea lazyArea;
 
+    // A separate copy of the layer chain for each worker thread, since LazyAreas and their
+    // contexts aren't thread safe. Null if this Layer can't be generated in parallel.
+    @Nullable
+    private final ThreadLocal<LazyArea> workerAreas;
+
     public Layer(IAreaFactory<LazyArea> lazyAreaFactoryIn) {
+        this(lazyAreaFactoryIn, null);
+    }
+
+    /**
+     * @param lazyAreaFactoryIn The layer chain used on the calling thread.
+     * @param chainFactory Builds a new copy of the same layer chain, with the same seed, for
+     *                     each worker thread. If null, requests are never split into tiles.
+     */
+    public Layer(IAreaFactory<LazyArea> lazyAreaFactoryIn, @Nullable Supplier<IAreaFactory<LazyArea>> chainFactory) {
         this.lazyArea = lazyAreaFactoryIn.make();
+        this.workerAreas = chainFactory == null ? null : ThreadLocal.withInitial(() -> chainFactory.get().make());
     }
 
     public Biome[] generateBiomes(int startX, int startZ, int xSize, int zSize, @Nullable Biome defaultBiome) {
-        Biome[] abiome = new Biome[xSize * zSize];
+        return toBiomes(generateValues(startX, startZ, xSize, zSize), defaultBiome);
+    }
+
+    /**
+     * Resolves layer values (e.g. from {@link #generateValues}) into biomes.
+     * @param defaultBiome Used for values that aren't a biome.
+     */
+    public static Biome[] toBiomes(int[] values, @Nullable Biome defaultBiome) {
+        Biome[] abiome = new Biome[values.length];
 
         int maxSize = BiomeProviderTFCR.biomes.length;
 
-        for(int i = 0; i < zSize; ++i) {
-            for(int j = 0; j < xSize; ++j) {
+        for (int i = 0; i < values.length; i++) {
+//            System.out.println("Generate biomes got value: " + values[i]);
+            abiome[i] = values[i] >= maxSize ? defaultBiome : BiomeProviderTFCR.biomes[values[i]];
+        }
 
-//                int value = lazyarea.getValue(j, i);
-                int value = this.lazyArea.getValue(startX + j, startZ + i);
-//                System.out.println("Generate biomes got value: " + value);
-                abiome[j + i * xSize] = value >= maxSize ? defaultBiome : BiomeProviderTFCR.biomes[value];
+        return abiome;
+    }
+
+    /**
+     * Generates the raw layer values in the given area, in x-major order (x + z * xSize).
+     *
+     * Large requests (e.g. pregeneration) are split into {@link #TILE_SIZE} tiles, each
+     * generated on a worker thread with that thread's own copy of the layer chain. Every
+     * layer is seeded by position, so the result is the same as generating it all on one
+     * thread.
+     */
+    public int[] generateValues(int startX, int startZ, int xSize, int zSize) {
+        int[] values = new int[xSize * zSize];
+        if (workerAreas == null || (xSize <= TILE_SIZE && zSize <= TILE_SIZE)) {
+            fill(lazyArea, values, startX, startZ, xSize, 0, 0, xSize, zSize);
+            return values;
+        }
+
+        List<ForkJoinTask<?>> tiles = new ArrayList<>();
+        for (int tileZ = 0; tileZ < zSize; tileZ += TILE_SIZE) {
+            for (int tileX = 0; tileX < xSize; tileX += TILE_SIZE) {
+                int offsetX = tileX;
+                int offsetZ = tileZ;
+                int width = Math.min(TILE_SIZE, xSize - tileX);
+                int length = Math.min(TILE_SIZE, zSize - tileZ);
+                tiles.add(pool.submit(() -> fill(workerAreas.get(), values, startX, startZ, xSize, offsetX, offsetZ, width, length)));
             }
         }
+        for (ForkJoinTask<?> tile : tiles) {
+            tile.join();
+        }
+        return values;
+    }
 
-        return abiome;
+    /**
+     * Generates the raw layer values in the given area on the calling thread only. The
+     * reference {@link #generateValues} is checked against.
+     */
+    int[] generateValuesSingleThreaded(int startX, int startZ, int xSize, int zSize) {
+        int[] values = new int[xSize * zSize];
+        fill(lazyArea, values, startX, startZ, xSize, 0, 0, xSize, zSize);
+        return values;
+    }
+
+    // Fills in one tile of a request.
+    private static void fill(LazyArea area, int[] values, int startX, int startZ, int xSize, int offsetX, int offsetZ, int width, int length) {
+        for (int i = offsetZ; i < offsetZ + length; ++i) {
+            for (int j = offsetX; j < offsetX + width; ++j) {
+                values[j + i * xSize] = area.getValue(startX + j, startZ + i);
+            }
+        }
     }
 
     public Biome getByID(int id) {
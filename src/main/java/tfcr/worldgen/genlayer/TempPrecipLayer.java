@@ -1,15 +1,12 @@
 package tfcr.worldgen.genlayer;
 
-import net.minecraft.util.math.MathHelper;
 import net.minecraft.world.gen.INoiseRandom;
-import net.minecraft.world.gen.ImprovedNoiseGenerator;
 import net.minecraft.world.gen.layer.traits.IAreaTransformer0;
 import tfcr.data.TFCRTemperature;
 
-import java.util.Random;
-
 /**
  * TFCR custom gen. Applies temperature and precipitation to the map.
+ * TFCRTemperature has to be initialized with the world seed first; see LayerUtilsTFCR.
  *
  * TODO: The nature of perlin noise means that the values approximate a gaussian curve.
  * This means that values closer to the middle are more likely, and essentially that
@@ -24,10 +21,6 @@ public enum TempPrecipLayer implements IAreaTransformer0 {
 
     @Override
     public int apply(INoiseRandom rand, int x, int z) {
-        if (!TFCRTemperature.isInitialized()) {
-            TFCRTemperature.initialize(rand);
-        }
-
         return TFCRTemperature.getWorldGen(x, z);
     }
 }
@@ -4,17 +4,39 @@ import net.minecraft.world.gen.INoiseRandom;
 import net.minecraft.world.gen.area.IArea;
 import net.minecraft.world.gen.layer.traits.IAreaTransformer2;
 import net.minecraft.world.gen.layer.traits.IDimOffset1Transformer;
+import tfcr.TFCRConfig;
 import tfcr.data.TerrainType;
 import tfcr.worldgen.BiomeProviderTFCR;
 import tfcr.worldgen.LayerUtilsTFCR;
 import tfcr.worldgen.biome.BaseTFCRBiome;
 
+import java.util.Arrays;
+
 /**
  * Handles combining the Temp/Precip layer with the structural worldgen.
+ *
+ * The biome for every (terrain, temperature, precipitation) is looked up in a table,
+ * built once from the biomes' ranges. {@link #scan} is the original linear search
+ * over every biome, kept as the reference the table is checked against, both in
+ * TempPrecipMaskLayerTest and at startup with {@link TFCRConfig#verifyBiomeLookup}.
  */
 public enum TempPrecipMaskLayer implements IAreaTransformer2, IDimOffset1Transformer {
     INSTANCE;
 
+    // The input ranges; see TFCRTemperature.getWorldGen.
+    static final int TEMP_OFFSET = 100;
+    static final int TEMP_COUNT = 200;
+    static final int PRECIP_COUNT = 100;
+
+    // In the table for inputs no biome matches.
+    static final short NO_MATCH = -1;
+
+    private static final TerrainType[] TERRAIN_TYPES = TerrainType.values();
+
+    // Only built once the biomes are, the first time the layer is used.
+    private static class Lookup {
+        static final short[][][] TABLE = init();
+    }
 
     // TODO currently mixing indices for placeholder biomes and concrete biomes. Should only
     //  return concrete biomes, since we'll soon get rid of placeholder biomes entirely.
@@ -28,27 +50,108 @@ public enum TempPrecipMaskLayer implements IAreaTransformer2, IDimOffset1Transfo
             return placeholderBiome;
         }
 
-        if (placeholderBiome > TerrainType.values().length) {
+        if (placeholderBiome < 0 || placeholderBiome >= TERRAIN_TYPES.length) {
             System.out.println("Got invalid input into temp/precip mask: " + placeholderBiome);
             return placeholderBiome;
         }
 
         // Else, get temp/precip
         int precip = rawTempPrecip & 0xff; // Take the bottom 8 bits for precip
-        int temp = (rawTempPrecip >> 8) - 100; // Take the next 8 bits for temp & normalize
+        int temp = (rawTempPrecip >> 8) - TEMP_OFFSET; // Take the next 8 bits for temp & normalize
+
+        if (temp < -TEMP_OFFSET || temp >= TEMP_COUNT - TEMP_OFFSET || precip >= PRECIP_COUNT) {
+            // Outside the table; TFCRTemperature never produces these.
+            return scan(placeholderBiome, temp, precip);
+        }
 
+        int biome = Lookup.TABLE[placeholderBiome][temp + TEMP_OFFSET][precip];
+        if (biome == NO_MATCH) {
+            // Error. This shouldn't ever be hit.
+            // TODO put a good default value here
+            return placeholderBiome;
+        }
+        return biome;
+    }
+
+    /**
+     * Finds the biome for the given inputs by checking every biome's range, in order.
+     * @param placeholderBiome The terrain type's ordinal.
+     * @param temp The temperature, in [-100, 100).
+     * @param precip The precipitation, in [0, 100).
+     * @return The index of the first matching biome, or placeholderBiome if none match.
+     */
+    public static int scan(int placeholderBiome, int temp, int precip) {
         // Go through all the biomes
         for (BaseTFCRBiome biome : BiomeProviderTFCR.biomes) {
             // If any match the requested range..
-            if (biome.matchesRange(temp, precip, TerrainType.values()[placeholderBiome])) {
+            if (biome.matchesRange(temp, precip, TERRAIN_TYPES[placeholderBiome])) {
                 // Return their index
                 return BiomeProviderTFCR.biomeToIndexLookup.get(biome);
             }
         }
-
-        // Error. This shouldn't ever be hit.
-        // TODO put a good default value here
         return placeholderBiome;
     }
 
+    private static short[][][] init() {
+        long start = System.nanoTime();
+        short[][][] table = build();
+        if (TFCRConfig.verifyBiomeLookup.get()) {
+            verify(table);
+        }
+        System.out.println("Built temp/precip biome table in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return table;
+    }
+
+    /**
+     * Builds the table of biomes, indexed by terrain type, temperature + TEMP_OFFSET, and
+     * precipitation. Inputs no biome matches are NO_MATCH.
+     */
+    static short[][][] build() {
+        short[][][] table = new short[TERRAIN_TYPES.length][TEMP_COUNT][PRECIP_COUNT];
+        for (short[][] byTemp : table) {
+            for (short[] byPrecip : byTemp) {
+                Arrays.fill(byPrecip, NO_MATCH);
+            }
+        }
+
+        // Fill in each biome's range. Walking the biomes backwards means the first one
+        // matching any input is written last, the same as the scan picks.
+        BaseTFCRBiome[] biomes = BiomeProviderTFCR.biomes;
+        for (int i = biomes.length - 1; i >= 0; i--) {
+            BaseTFCRBiome biome = biomes[i];
+            short index = (short) (int) BiomeProviderTFCR.biomeToIndexLookup.get(biome);
+            short[][] byTemp = table[biome.terrainType.ordinal()];
+            for (int temp = 0; temp < TEMP_COUNT; temp++) {
+                for (int precip = 0; precip < PRECIP_COUNT; precip++) {
+                    if (biome.matchesRange(temp - TEMP_OFFSET, precip, biome.terrainType)) {
+                        byTemp[temp][precip] = index;
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    // Checks every input in the table against the scan, and fails loudly on any difference.
+    private static void verify(short[][][] table) {
+        int mismatches = 0;
+        for (int terrain = 0; terrain < TERRAIN_TYPES.length; terrain++) {
+            for (int temp = 0; temp < TEMP_COUNT; temp++) {
+                for (int precip = 0; precip < PRECIP_COUNT; precip++) {
+                    int expected = scan(terrain, temp - TEMP_OFFSET, precip);
+                    int actual = table[terrain][temp][precip] == NO_MATCH ? terrain : table[terrain][temp][precip];
+                    if (expected != actual) {
+                        if (mismatches++ < 10) {
+                            System.out.println("Temp/precip biome table mismatch at " + TERRAIN_TYPES[terrain] +
+                                    ", temp " + (temp - TEMP_OFFSET) + ", precip " + precip + ": expected " + expected + ", got " + actual);
+                        }
+                    }
+                }
+            }
+        }
+        if (mismatches > 0) {
+            throw new IllegalStateException(mismatches + " entries of the temp/precip biome table don't match the biome ranges");
+        }
+        System.out.println("Verified all " + (TERRAIN_TYPES.length * TEMP_COUNT * PRECIP_COUNT) + " entries of the temp/precip biome table");
+    }
 }
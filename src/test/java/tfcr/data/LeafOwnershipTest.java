@@ -0,0 +1,104 @@
+package tfcr.data;
+
+import net.minecraft.nbt.CompoundNBT;
+import net.minecraft.nbt.ListNBT;
+import net.minecraft.util.math.BlockPos;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class LeafOwnershipTest {
+
+    private static CompoundNBT paletteEntry(String name, String numTrees) {
+        CompoundNBT entry = new CompoundNBT();
+        entry.putString("Name", name);
+        if (numTrees != null) {
+            CompoundNBT properties = new CompoundNBT();
+            properties.putString("num_trees", numTrees);
+            entry.put("Properties", properties);
+        }
+        return entry;
+    }
+
+    // Packs palette indices the way 1.14 chunk sections are saved: bits per entry, spanning longs.
+    private static long[] pack(int[] indices, int bits) {
+        long[] states = new long[4096 * bits / 64];
+        for (int index = 0; index < indices.length; index++) {
+            long bitIndex = (long) index * bits;
+            int start = (int) (bitIndex >> 6);
+            int end = (int) ((bitIndex + bits - 1) >> 6);
+            int offset = (int) (bitIndex & 63);
+            states[start] |= (long) indices[index] << offset;
+            if (start != end) {
+                states[end] |= (long) indices[index] >>> (64 - offset);
+            }
+        }
+        return states;
+    }
+
+    private static CompoundNBT level(int y, ListNBT palette, long[] states) {
+        CompoundNBT section = new CompoundNBT();
+        section.putByte("Y", (byte) y);
+        section.put("Palette", palette);
+        section.putLongArray("BlockStates", states);
+
+        ListNBT sections = new ListNBT();
+        sections.add(section);
+        CompoundNBT level = new CompoundNBT();
+        level.put("Sections", sections);
+        return level;
+    }
+
+    @Test
+    public void migratesNumTrees() {
+        ListNBT palette = new ListNBT();
+        palette.add(paletteEntry("minecraft:air", null));
+        palette.add(paletteEntry("tfcr:leaves/oak", "1"));
+        palette.add(paletteEntry("tfcr:leaves/oak", "3"));
+        palette.add(paletteEntry("tfcr:leaves/birch", "0"));
+
+        int[] indices = new int[4096];
+        indices[0] = 1;
+        indices[(2 << 8) | (5 << 4) | 7] = 2;
+        indices[4095] = 3;
+
+        LeafOwnership ownership = new LeafOwnership();
+        assertEquals(LeafOwnership.migrateNumTrees(ownership, level(1, palette, pack(indices, 4))), 2);
+        assertEquals(ownership.size(), 2);
+        assertEquals(ownership.getOwners(new BlockPos(0, 16, 0)), 1);
+        assertEquals(ownership.getOwners(new BlockPos(7, 18, 5)), 3);
+        assertEquals(ownership.getOwners(new BlockPos(15, 31, 15)), 0);
+    }
+
+    @Test
+    public void migratesEntriesSpanningLongs() {
+        // 17 palette entries need 5 bits each, so some entries are split across two longs.
+        ListNBT palette = new ListNBT();
+        for (int i = 0; i < 16; i++) {
+            palette.add(paletteEntry("minecraft:stone", null));
+        }
+        palette.add(paletteEntry("tfcr:leaves/oak", "2"));
+
+        int[] indices = new int[4096];
+        // Entry 12 covers bits 60 to 64.
+        indices[12] = 16;
+
+        LeafOwnership ownership = new LeafOwnership();
+        assertEquals(LeafOwnership.migrateNumTrees(ownership, level(0, palette, pack(indices, 5))), 1);
+        assertEquals(ownership.getOwners(new BlockPos(12, 0, 0)), 2);
+    }
+
+    @Test
+    public void ignoresChunksWithoutOldLeaves() {
+        ListNBT palette = new ListNBT();
+        palette.add(paletteEntry("minecraft:air", null));
+        palette.add(paletteEntry("tfcr:leaves/oak", null));
+
+        int[] indices = new int[4096];
+        indices[100] = 1;
+
+        LeafOwnership ownership = new LeafOwnership();
+        assertEquals(LeafOwnership.migrateNumTrees(ownership, level(0, palette, pack(indices, 4))), 0);
+        assertEquals(ownership.size(), 0);
+    }
+}
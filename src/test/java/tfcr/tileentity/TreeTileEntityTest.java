@@ -0,0 +1,156 @@
+package tfcr.tileentity;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.registry.Bootstrap;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import tfcr.blocks.LeavesBlock;
+import tfcr.data.WoodType;
+import tfcr.utils.CompiledTreeTemplate;
+import tfcr.utils.ITreeBlockWriter;
+
+import static org.testng.Assert.*;
+
+public class TreeTileEntityTest {
+
+    private static final BlockPos ROOT = new BlockPos(100, 64, -100);
+
+    /**
+     * A world that only knows about the blocks written to it, and counts reads.
+     */
+    private static class CountingWriter implements ITreeBlockWriter {
+        final Long2ObjectOpenHashMap<BlockState> blocks = new Long2ObjectOpenHashMap<>();
+        final Long2IntOpenHashMap owners = new Long2IntOpenHashMap();
+        int reads = 0;
+
+        CountingWriter() {
+            owners.defaultReturnValue(1);
+        }
+
+        @Override
+        public BlockState getBlockState(BlockPos pos) {
+            reads++;
+            BlockState state = blocks.get(pos.toLong());
+            return state != null ? state : Blocks.AIR.getDefaultState();
+        }
+
+        @Override
+        public void setBlockState(BlockPos pos, BlockState state) {
+            blocks.put(pos.toLong(), state);
+        }
+
+        @Override
+        public void removeBlock(BlockPos pos) {
+            blocks.remove(pos.toLong());
+        }
+
+        @Override
+        public int getLeafOwners(BlockPos pos) {
+            return owners.get(pos.toLong());
+        }
+
+        @Override
+        public void setLeafOwners(BlockPos pos, int count) {
+            owners.put(pos.toLong(), count);
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    @BeforeClass
+    public void setUp() {
+        Bootstrap.register();
+    }
+
+    // A template of the given size, with a column of leaves above the root and one block of dirt.
+    private static CompiledTreeTemplate makeTemplate(int size, int leaves) {
+        long[] positions = new long[leaves + 1];
+        BlockState[] states = new BlockState[leaves + 1];
+        for (int i = 0; i < leaves; i++) {
+            positions[i] = CompiledTreeTemplate.pack(0, i + 1, 0);
+            states[i] = LeavesBlock.get(WoodType.OAK).getDefaultState();
+        }
+        positions[leaves] = CompiledTreeTemplate.pack(1, 0, 1);
+        states[leaves] = Blocks.DIRT.getDefaultState();
+
+        return CompiledTreeTemplate.of(new BlockPos(size, size, size), new BlockPos(size / 2, 0, size / 2), positions, states);
+    }
+
+    private static CountingWriter placeInWorld(CompiledTreeTemplate template) {
+        CountingWriter writer = new CountingWriter();
+        TreeTileEntity.placeTree(writer, ROOT, template, WoodType.OAK);
+        writer.reads = 0;
+        return writer;
+    }
+
+    @Test
+    public void testRemoveTreeOnlyVisitsOccupiedCells() {
+        CompiledTreeTemplate template = makeTemplate(64, 10);
+        CountingWriter writer = placeInWorld(template);
+
+        int visited = TreeTileEntity.removeTree(writer, ROOT, template);
+
+        // 64^3 = 262,144 cells in the bounding box, but only the 10 leaves are looked at.
+        assertEquals(visited, 10);
+        assertEquals(writer.reads, 10);
+
+        // The leaves are gone, but the dirt isn't part of the tree so it stays.
+        assertEquals(writer.blocks.size(), 1);
+        assertEquals(writer.blocks.get(ROOT.add(1, 0, 1).toLong()), Blocks.DIRT.getDefaultState());
+    }
+
+    @Test
+    public void testRemoveTreeCostIndependentOfVolume() {
+        CompiledTreeTemplate small = makeTemplate(8, 20);
+        CompiledTreeTemplate large = makeTemplate(128, 20);
+
+        CountingWriter smallWriter = placeInWorld(small);
+        CountingWriter largeWriter = placeInWorld(large);
+        TreeTileEntity.removeTree(smallWriter, ROOT, small);
+        TreeTileEntity.removeTree(largeWriter, ROOT, large);
+
+        assertEquals(largeWriter.reads, smallWriter.reads);
+    }
+
+    @Test
+    public void testRemoveTreeKeepsSharedLeaves() {
+        CompiledTreeTemplate template = makeTemplate(16, 4);
+        CountingWriter writer = placeInWorld(template);
+
+        // Another tree also owns the top leaf.
+        BlockPos shared = ROOT.add(0, 4, 0);
+        writer.setLeafOwners(shared, 2);
+
+        TreeTileEntity.removeTree(writer, ROOT, template);
+
+        assertNotNull(writer.blocks.get(shared.toLong()));
+        assertEquals(writer.getLeafOwners(shared), 1);
+        assertNull(writer.blocks.get(ROOT.add(0, 1, 0).toLong()));
+    }
+
+    @Test
+    public void testWorldgenPhasesAreSpreadOut() {
+        // A 32x32 patch of trees, as a dense forest would generate.
+        int[] buckets = new int[20];
+        for (int x = 0; x < 32; x++) {
+            for (int z = 0; z < 32; z++) {
+                BlockPos pos = new BlockPos(x, 64, z);
+                int phase = TreeTileEntity.getWorldgenPhase(12345L, pos);
+                assertTrue(phase >= 0 && phase < TreeTileEntity.GROWTH_INTERVAL);
+                assertEquals(TreeTileEntity.getWorldgenPhase(12345L, pos), phase);
+                buckets[phase * buckets.length / TreeTileEntity.GROWTH_INTERVAL]++;
+            }
+        }
+
+        // 1024 trees over 20 buckets is ~51 per bucket; none should be far off.
+        for (int count : buckets) {
+            assertTrue(count > 20 && count < 90, "Uneven phase distribution: " + count);
+        }
+    }
+}
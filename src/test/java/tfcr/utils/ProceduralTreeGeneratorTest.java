@@ -0,0 +1,79 @@
+package tfcr.utils;
+
+import net.minecraft.util.registry.Bootstrap;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import tfcr.blocks.BranchBlock;
+import tfcr.blocks.SaplingBlock;
+import tfcr.blocks.TallSaplingBlock;
+import tfcr.data.WoodType;
+
+import static org.testng.Assert.*;
+
+public class ProceduralTreeGeneratorTest {
+
+    @BeforeClass
+    public void setup() {
+        Bootstrap.register();
+        SaplingBlock.getAllBlocks();
+        TallSaplingBlock.getAllBlocks();
+    }
+
+    @Test
+    public void sameSeedGivesSameTree() {
+        for (WoodType woodType : WoodType.values()) {
+            CompiledTreeTemplate a = ProceduralTreeGenerator.generate(woodType, SaplingBlock.getMaxAge(), 1234L);
+            CompiledTreeTemplate b = ProceduralTreeGenerator.generate(woodType, SaplingBlock.getMaxAge(), 1234L);
+
+            assertEquals(a.size(), b.size());
+            for (int i = 0; i < a.size(); i++) {
+                assertEquals(a.getPackedPos(i), b.getPackedPos(i));
+                assertSame(a.getState(i), b.getState(i));
+            }
+        }
+    }
+
+    @Test
+    public void everyTreeHasARoot() {
+        // Every shape the cache can hold, so no age or variant picks a block that doesn't exist.
+        for (WoodType woodType : WoodType.values()) {
+            for (int age = 0; age <= SaplingBlock.getMaxAge(); age++) {
+                for (int variant = 0; variant < CompiledTreeTemplate.VARIANTS; variant++) {
+                    String name = woodType + " age " + age + " variant " + variant;
+                    CompiledTreeTemplate template = ProceduralTreeGenerator.get(woodType, age, variant);
+
+                    boolean foundRoot = false;
+                    for (int i = 0; i < template.size(); i++) {
+                        if (template.getPackedPos(i) == CompiledTreeTemplate.pack(0, 0, 0)) {
+                            if (age >= 2) {
+                                assertTrue(template.getState(i).get(BranchBlock.ROOT), name);
+                            }
+                            foundRoot = true;
+                        }
+                    }
+                    assertTrue(foundRoot, name);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void variantsAreDifferentTrees() {
+        for (WoodType woodType : WoodType.values()) {
+            CompiledTreeTemplate a = ProceduralTreeGenerator.generate(woodType, SaplingBlock.getMaxAge(), ProceduralTreeGenerator.getSeed(woodType, 0));
+            CompiledTreeTemplate b = ProceduralTreeGenerator.generate(woodType, SaplingBlock.getMaxAge(), ProceduralTreeGenerator.getSeed(woodType, 1));
+
+            boolean different = a.size() != b.size();
+            for (int i = 0; i < a.size() && !different; i++) {
+                different = a.getPackedPos(i) != b.getPackedPos(i) || a.getState(i) != b.getState(i);
+            }
+            assertTrue(different, woodType.toString());
+        }
+    }
+
+    @Test
+    public void cachedTemplatesAreReused() {
+        CompiledTreeTemplate first = ProceduralTreeGenerator.get(WoodType.MAPLE, 5, 3);
+        assertSame(ProceduralTreeGenerator.get(WoodType.MAPLE, 5, 3), first);
+    }
+}
@@ -0,0 +1,181 @@
+package tfcr.worldgen;
+
+import com.google.common.collect.ImmutableList;
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.gen.LazyAreaLayerContext;
+import net.minecraft.world.gen.OverworldGenSettings;
+import net.minecraft.world.gen.area.IAreaFactory;
+import net.minecraft.world.gen.area.LazyArea;
+import net.minecraft.world.gen.layer.SmoothLayer;
+import net.minecraft.world.gen.layer.VoroniZoomLayer;
+import net.minecraft.world.gen.layer.ZoomLayer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import tfcr.data.TFCRTemperature;
+import tfcr.worldgen.genlayer.*;
+
+import java.util.List;
+import java.util.function.LongFunction;
+
+import static org.testng.Assert.*;
+
+/**
+ * Checks that building the procedures through a {@link LayerGraph} generates the same values
+ * as the plain chains of factories they were written as before.
+ */
+public class LayerUtilsTFCRTest {
+
+    private static final long SEED = 1234L;
+
+    private WorldType worldType;
+    private OverworldGenSettings settings;
+
+    @BeforeClass
+    public void setup() {
+        Bootstrap.register();
+        // The plain chains use TempPrecipLayer without going through LayerUtilsTFCR.
+        TFCRTemperature.initialize(SEED);
+        worldType = new WorldTypeTFCR();
+        settings = new OverworldGenSettings();
+    }
+
+    private static LongFunction<LazyAreaLayerContext> contextFactory() {
+        return seedModifier -> new LazyAreaLayerContext(25, SEED, seedModifier);
+    }
+
+    // buildSimpleProcedure2, as plain factory calls.
+    private List<IAreaFactory<LazyArea>> plainSimpleProcedure() {
+        LongFunction<LazyAreaLayerContext> contextFactory = contextFactory();
+
+        IAreaFactory<LazyArea> base = IslandLayer.INSTANCE.apply(contextFactory.apply(1L));
+        base = ZoomLayer.FUZZY.apply(contextFactory.apply(2000L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(1L), base);
+        base = ZoomLayer.NORMAL.apply(contextFactory.apply(2001L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(2L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(50L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(70L), base);
+        base = RemoveTooMuchOceanLayer.INSTANCE.apply(contextFactory.apply(2L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), base);
+        base = ZoomLayer.NORMAL.apply(contextFactory.apply(2002L), base);
+        base = ZoomLayer.NORMAL.apply(contextFactory.apply(2003L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(4L), base);
+        base = DeepOceanLayer.INSTANCE.apply(contextFactory.apply(4L), base);
+        base = RaiseInlandLayer.INSTANCE.apply(contextFactory.apply(5L), base);
+
+        IAreaFactory<LazyArea> biomes = worldType.getBiomeLayer(base, settings, contextFactory);
+
+        IAreaFactory<LazyArea> mountains = RiverInitLayer.INSTANCE.apply(contextFactory.apply(200L), base);
+        mountains = LayerUtilsTFCR.repeat(1001L, ZoomLayer.NORMAL, mountains, 2, contextFactory);
+        mountains = LayerUtilsTFCR.repeat(1001L, ZoomLayer.NORMAL, mountains, 4, contextFactory);
+        mountains = RiverLayer.INSTANCE.apply(contextFactory.apply(2L), mountains);
+        mountains = SmoothLayer.INSTANCE.apply(contextFactory.apply(2000L), mountains);
+
+        biomes = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L), biomes);
+        biomes = RaiseInlandHillLayer.INSTANCE.apply(contextFactory.apply(6L), biomes);
+        biomes = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), biomes);
+        biomes = MountainMaskLayer.INSTANCE.apply(contextFactory.apply(200L), biomes, mountains);
+        biomes = ZoomLayer.NORMAL.apply(contextFactory.apply(1001L), biomes);
+        biomes = ShoreLayer.INSTANCE.apply(contextFactory.apply(1000L), biomes);
+        biomes = ZoomLayer.NORMAL.apply(contextFactory.apply(1002L), biomes);
+        biomes = ZoomLayer.NORMAL.apply(contextFactory.apply(1003L), biomes);
+
+        IAreaFactory<LazyArea> rivers = RiverInitLayer.INSTANCE.apply(contextFactory.apply(100L), base);
+        rivers = LayerUtilsTFCR.repeat(1000L, ZoomLayer.NORMAL, rivers, 2, contextFactory);
+        rivers = LayerUtilsTFCR.repeat(1000L, ZoomLayer.NORMAL, rivers, 4, contextFactory);
+        rivers = RiverLayer.INSTANCE.apply(contextFactory.apply(1L), rivers);
+        rivers = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), rivers);
+
+        biomes = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), biomes);
+        biomes = RiverMaskLayer.INSTANCE.apply(contextFactory.apply(100L), biomes, rivers);
+
+        IAreaFactory<LazyArea> tempPrecip = TempPrecipLayer.INSTANCE.apply(contextFactory.apply(17L));
+        biomes = TempPrecipMaskLayer.INSTANCE.apply(contextFactory.apply(1000L), biomes, tempPrecip);
+
+        IAreaFactory<LazyArea> voronoi = VoroniZoomLayer.INSTANCE.apply(contextFactory.apply(10L), biomes);
+        return ImmutableList.of(biomes, voronoi, biomes);
+    }
+
+    // buildOverworldProcedure, as plain factory calls.
+    private List<IAreaFactory<LazyArea>> plainOverworldProcedure() {
+        LongFunction<LazyAreaLayerContext> contextFactory = contextFactory();
+
+        IAreaFactory<LazyArea> base = IslandLayer.INSTANCE.apply(contextFactory.apply(1L));
+        base = ZoomLayer.FUZZY.apply(contextFactory.apply(2000L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(1L), base);
+        base = ZoomLayer.NORMAL.apply(contextFactory.apply(2001L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(2L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(50L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(70L), base);
+        base = RemoveTooMuchOceanLayer.INSTANCE.apply(contextFactory.apply(2L), base);
+        base = AddMountainLayer.INSTANCE.apply(contextFactory.apply(2L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), base);
+        base = ZoomLayer.NORMAL.apply(contextFactory.apply(2002L), base);
+        base = ZoomLayer.NORMAL.apply(contextFactory.apply(2003L), base);
+        base = AddIslandLayer.INSTANCE.apply(contextFactory.apply(4L), base);
+        base = DeepOceanLayer.INSTANCE.apply(contextFactory.apply(4L), base);
+        base = LayerUtilsTFCR.repeat(16L, EqualizeLayer.INSTANCE, base, 2, contextFactory);
+
+        IAreaFactory<LazyArea> tempPrecip = TempPrecipLayer.INSTANCE.apply(contextFactory.apply(17L));
+        tempPrecip = ZoomLayer.FUZZY.apply(contextFactory.apply(2004L), tempPrecip);
+
+        IAreaFactory<LazyArea> rivers = RiverInitLayer.INSTANCE.apply(contextFactory.apply(100L), base);
+
+        IAreaFactory<LazyArea> biomes = worldType.getBiomeLayer(base, settings, contextFactory);
+        biomes = HillLayer.INSTANCE.apply(contextFactory.apply(1000L), biomes);
+
+        rivers = LayerUtilsTFCR.repeat(1000L, ZoomLayer.NORMAL, rivers, 2, contextFactory);
+        rivers = LayerUtilsTFCR.repeat(1000L, ZoomLayer.NORMAL, rivers, 4, contextFactory);
+        rivers = RiverLayer.INSTANCE.apply(contextFactory.apply(1L), rivers);
+        rivers = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), rivers);
+
+        for (int zoomIteration = 0; zoomIteration < 4; zoomIteration++) {
+            biomes = ZoomLayer.NORMAL.apply(contextFactory.apply(1000L + zoomIteration), biomes);
+            if (zoomIteration == 0) {
+                biomes = AddIslandLayer.INSTANCE.apply(contextFactory.apply(3L), biomes);
+            }
+            if (zoomIteration == 1) {
+                biomes = ShoreLayer.INSTANCE.apply(contextFactory.apply(1000L), biomes);
+            }
+        }
+
+        biomes = SmoothLayer.INSTANCE.apply(contextFactory.apply(1000L), biomes);
+        biomes = RiverMaskLayer.INSTANCE.apply(contextFactory.apply(100L), biomes, rivers);
+        biomes = TempPrecipMaskLayer.INSTANCE.apply(contextFactory.apply(1000L), biomes, tempPrecip);
+
+        IAreaFactory<LazyArea> voronoi = VoroniZoomLayer.INSTANCE.apply(contextFactory.apply(10L), biomes);
+        return ImmutableList.of(biomes, voronoi, biomes);
+    }
+
+    private static void assertSameValues(Layer[] graphLayers, List<IAreaFactory<LazyArea>> plainFactories) {
+        assertEquals(graphLayers.length, plainFactories.size());
+        for (int i = 0; i < graphLayers.length; i++) {
+            Layer plain = new Layer(plainFactories.get(i));
+            int[] expected = plain.generateValues(-200, 300, 160, 160);
+            int[] actual = graphLayers[i].generateValues(-200, 300, 160, 160);
+            assertEquals(actual, expected, "layer " + i);
+        }
+    }
+
+    @Test
+    public void simpleProcedureMatchesPlainChain() {
+        assertSameValues(LayerUtilsTFCR.buildSimpleProcedure(SEED, worldType, settings), plainSimpleProcedure());
+    }
+
+    @Test
+    public void overworldProcedureMatchesPlainChain() {
+        assertSameValues(LayerUtilsTFCR.buildOverworldProcedure(SEED, worldType, settings), plainOverworldProcedure());
+    }
+
+    @Test
+    public void stageNamesDontDependOnBuildOrder() {
+        assertEquals(LayerGraph.getName(ZoomLayer.NORMAL), "ZoomLayer.NORMAL");
+        assertEquals(LayerGraph.getName(IslandLayer.INSTANCE), "IslandLayer");
+        assertNull(LayerGraph.getName((net.minecraft.world.gen.layer.traits.IAreaTransformer0) (context, x, z) -> 0));
+
+        LayerContextTFCR context = new LayerContextTFCR(SEED, 1000L);
+        context.setStageName("ZoomLayer.NORMAL");
+        assertEquals(context.getStageKey(), "ZoomLayer.NORMAL@1000");
+        assertEquals(new LayerContextTFCR(SEED, 200L).getStageKey(), "@200");
+    }
+}
@@ -0,0 +1,93 @@
+package tfcr.worldgen.genlayer;
+
+import net.minecraft.util.registry.Bootstrap;
+import net.minecraft.world.WorldType;
+import net.minecraft.world.gen.LazyAreaLayerContext;
+import net.minecraft.world.gen.OverworldGenSettings;
+import net.minecraft.world.gen.area.IAreaFactory;
+import net.minecraft.world.gen.area.LazyArea;
+import net.minecraft.world.gen.layer.SmoothLayer;
+import net.minecraft.world.gen.layer.ZoomLayer;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import tfcr.worldgen.LayerUtilsTFCR;
+import tfcr.worldgen.WorldTypeTFCR;
+
+import static org.testng.Assert.*;
+
+public class LayerTest {
+
+    private static final long SEED = 1234L;
+
+    private WorldType worldType;
+
+    @BeforeClass
+    public void setup() {
+        Bootstrap.register();
+        worldType = new WorldTypeTFCR();
+    }
+
+    // A small chain of position-seeded layers, like the ones LayerUtilsTFCR builds.
+    private static IAreaFactory<LazyArea> buildChain() {
+        IAreaFactory<LazyArea> factory = IslandLayer.INSTANCE.apply(new LazyAreaLayerContext(25, SEED, 1L));
+        factory = ZoomLayer.FUZZY.apply(new LazyAreaLayerContext(25, SEED, 2000L), factory);
+        factory = AddIslandLayer.INSTANCE.apply(new LazyAreaLayerContext(25, SEED, 1L), factory);
+        factory = ZoomLayer.NORMAL.apply(new LazyAreaLayerContext(25, SEED, 2001L), factory);
+        factory = ZoomLayer.NORMAL.apply(new LazyAreaLayerContext(25, SEED, 1000L), factory);
+        factory = SmoothLayer.INSTANCE.apply(new LazyAreaLayerContext(25, SEED, 1000L), factory);
+        return factory;
+    }
+
+    @Test
+    public void tiledOutputMatchesSingleThreaded() {
+        Layer reference = new Layer(buildChain());
+        Layer tiled = new Layer(buildChain(), LayerTest::buildChain);
+
+        // Uneven sizes, so the last row and column of tiles are partial.
+        int startX = -300;
+        int startZ = 700;
+        int xSize = Layer.TILE_SIZE * 2 + 37;
+        int zSize = Layer.TILE_SIZE * 3 + 5;
+
+        int[] expected = reference.generateValuesSingleThreaded(startX, startZ, xSize, zSize);
+        int[] actual = tiled.generateValues(startX, startZ, xSize, zSize);
+        assertEquals(actual, expected);
+    }
+
+    @Test
+    public void repeatedTiledRequestsMatch() {
+        Layer tiled = new Layer(buildChain(), LayerTest::buildChain);
+
+        // The second request is served by worker threads whose chains are already warm.
+        int[] first = tiled.generateValues(0, 0, Layer.TILE_SIZE * 2, Layer.TILE_SIZE * 2);
+        int[] second = tiled.generateValues(0, 0, Layer.TILE_SIZE * 2, Layer.TILE_SIZE * 2);
+        assertEquals(second, first);
+    }
+
+    @Test
+    public void smallRequestsMatch() {
+        Layer reference = new Layer(buildChain());
+        Layer tiled = new Layer(buildChain(), LayerTest::buildChain);
+
+        assertEquals(tiled.generateValues(16, -48, 16, 16), reference.generateValuesSingleThreaded(16, -48, 16, 16));
+    }
+
+    @Test
+    public void realProcedureTiledMatchesSingleThreaded() {
+        // The whole stack BiomeProviderTFCR uses, including TempPrecipLayer.
+        Layer[] reference = LayerUtilsTFCR.buildSimpleProcedure(SEED, worldType, new OverworldGenSettings());
+        Layer[] tiled = LayerUtilsTFCR.buildSimpleProcedure(SEED, worldType, new OverworldGenSettings());
+
+        int startX = -300;
+        int startZ = 700;
+        int xSize = Layer.TILE_SIZE * 2 + 37;
+        int zSize = Layer.TILE_SIZE * 2 + 5;
+
+        // Tiled first, so anything set up from the first position requested is set up by the tiled path.
+        for (int i = 0; i < tiled.length; i++) {
+            int[] actual = tiled[i].generateValues(startX, startZ, xSize, zSize);
+            int[] expected = reference[i].generateValuesSingleThreaded(startX, startZ, xSize, zSize);
+            assertEquals(actual, expected, "layer " + i);
+        }
+    }
+}
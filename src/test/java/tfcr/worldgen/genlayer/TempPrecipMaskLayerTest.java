@@ -0,0 +1,41 @@
+package tfcr.worldgen.genlayer;
+
+import net.minecraft.util.registry.Bootstrap;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import tfcr.data.TerrainType;
+
+import static org.testng.Assert.*;
+import static tfcr.worldgen.genlayer.TempPrecipMaskLayer.*;
+
+public class TempPrecipMaskLayerTest {
+
+    @BeforeClass
+    public void setup() {
+        Bootstrap.register();
+    }
+
+    @Test
+    public void tableMatchesScan() {
+        short[][][] table = TempPrecipMaskLayer.build();
+
+        int matched = 0;
+        for (int terrain = 0; terrain < TerrainType.values().length; terrain++) {
+            for (int temp = 0; temp < TEMP_COUNT; temp++) {
+                for (int precip = 0; precip < PRECIP_COUNT; precip++) {
+                    // The layer passes the terrain type through when nothing matches, as the scan does.
+                    int actual = table[terrain][temp][precip] == NO_MATCH ? terrain : table[terrain][temp][precip];
+                    int expected = TempPrecipMaskLayer.scan(terrain, temp - TEMP_OFFSET, precip);
+                    assertEquals(actual, expected, TerrainType.values()[terrain] + ", temp " + (temp - TEMP_OFFSET) + ", precip " + precip);
+
+                    if (table[terrain][temp][precip] != NO_MATCH) {
+                        matched++;
+                    }
+                }
+            }
+        }
+
+        // Make sure we actually compared against some biomes.
+        assertTrue(matched > 0);
+    }
+}